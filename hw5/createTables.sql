@@ -9,6 +9,7 @@ CREATE TABLE Itineraries (
 ItineraryID INT PRIMARY KEY,
 fid1 INT,
 fid2 INT NULL,
+Price INT,
 FOREIGN KEY (fid1) REFERENCES FLIGHTS (fid),
 FOREIGN KEY (fid2) REFERENCES FLIGHTS (fid)
 );
@@ -19,8 +20,13 @@ IsPaid INT,
 IsCancelled INT,
 ItineraryID INT,
 UserName VARCHAR(20),
+fid1 INT,
+fid2 INT NULL,
+Price INT,
 FOREIGN KEY (ItineraryID) REFERENCES Itineraries (ItineraryID),
-FOREIGN KEY (UserName) REFERENCES Users (UserName)
+FOREIGN KEY (UserName) REFERENCES Users (UserName),
+FOREIGN KEY (fid1) REFERENCES FLIGHTS (fid),
+FOREIGN KEY (fid2) REFERENCES FLIGHTS (fid)
 );
 
 CREATE TABLE Capacity (
@@ -0,0 +1,20 @@
+-- Secondary indexes for the reservation lookups and the flight searches.
+-- Flights is never dropped between runs, so every index is guarded.
+
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Reservations_UserName_IsCancelled')
+CREATE INDEX IX_Reservations_UserName_IsCancelled ON Reservations (UserName, IsCancelled);
+
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Reservations_ItineraryID')
+CREATE INDEX IX_Reservations_ItineraryID ON Reservations (ItineraryID);
+
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Flights_Route_Day')
+CREATE INDEX IX_Flights_Route_Day ON FLIGHTS (origin_city, dest_city, day_of_month, canceled)
+INCLUDE (actual_time, carrier_id, flight_num, capacity, price);
+
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Flights_Origin_Day')
+CREATE INDEX IX_Flights_Origin_Day ON FLIGHTS (origin_city, day_of_month, canceled)
+INCLUDE (dest_city, actual_time, carrier_id, flight_num, capacity, price);
+
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Flights_Dest_Day')
+CREATE INDEX IX_Flights_Dest_Day ON FLIGHTS (dest_city, day_of_month, canceled)
+INCLUDE (origin_city, actual_time, carrier_id, flight_num, capacity, price);
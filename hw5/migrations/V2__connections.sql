@@ -0,0 +1,20 @@
+-- Optional materialization of every one-stop connection, one row per (f1, f2) pair on the same
+-- day. Filled offline by flightapp.ConnectionsBuilder and kept current by the trigger in V7; the
+-- clustered key serves the TOP-k read in Query when -Dflightapp.connections=true.
+
+IF OBJECT_ID('Connections') IS NULL
+CREATE TABLE Connections (
+day_of_month INT NOT NULL,
+origin_city VARCHAR(100) NOT NULL,
+dest_city VARCHAR(100) NOT NULL,
+total_time INT NOT NULL,
+fid1 INT NOT NULL,
+fid2 INT NOT NULL,
+PRIMARY KEY (day_of_month, origin_city, dest_city, total_time, fid1, fid2)
+);
+
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Connections_fid1')
+CREATE INDEX IX_Connections_fid1 ON Connections (fid1);
+
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Connections_fid2')
+CREATE INDEX IX_Connections_fid2 ON Connections (fid2);
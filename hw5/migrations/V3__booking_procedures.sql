@@ -0,0 +1,151 @@
+-- Server-side book, pay and cancel, one round trip per command. Used by Query when
+-- -Dflightapp.procedures=true; the Result output codes are mapped back to the usual responses.
+-- Procedure bodies contain semicolons, so statements of this script end with $$ lines.
+
+-- @DELIMITER $$
+
+-- Result: 0 booked, 1 no such itinerary, 2 same day, 3 no seats left.
+-- Fid/Seats report the seats left on the booked flights; Fid2 is NULL for direct flights.
+CREATE OR ALTER PROCEDURE BookItinerary
+  @UserName VARCHAR(20),
+  @ItineraryID INT,
+  @Result INT OUTPUT,
+  @ReservationID INT OUTPUT,
+  @Fid1 INT OUTPUT,
+  @Seats1 INT OUTPUT,
+  @Fid2 INT OUTPUT,
+  @Seats2 INT OUTPUT
+AS
+BEGIN
+  SET NOCOUNT ON;
+  SET XACT_ABORT ON;
+  DECLARE @Price INT, @Day INT;
+
+  SELECT @Fid1 = fid1, @Fid2 = fid2, @Price = Price FROM Itineraries WHERE ItineraryID = @ItineraryID;
+  IF @@ROWCOUNT = 0
+  BEGIN
+    SET @Result = 1;
+    RETURN;
+  END
+  SELECT @Day = day_of_month FROM Flights WHERE fid = @Fid1;
+
+  BEGIN TRANSACTION;
+  SELECT @Seats1 = capacity FROM Capacity WITH (UPDLOCK) WHERE fid = @Fid1;
+  IF @Fid2 IS NOT NULL
+    SELECT @Seats2 = capacity FROM Capacity WITH (UPDLOCK) WHERE fid = @Fid2;
+  IF ISNULL(@Seats1, 0) <= 0 OR (@Fid2 IS NOT NULL AND ISNULL(@Seats2, 0) <= 0)
+  BEGIN
+    ROLLBACK;
+    SET @Result = 3;
+    RETURN;
+  END
+
+  IF EXISTS (SELECT * FROM Reservations AS R JOIN Flights AS F ON R.fid1 = F.fid
+             WHERE R.UserName = @UserName AND R.IsCancelled = 0 AND F.day_of_month = @Day)
+  BEGIN
+    ROLLBACK;
+    SET @Result = 2;
+    RETURN;
+  END
+
+  SET @Seats1 = @Seats1 - 1;
+  UPDATE Capacity SET capacity = @Seats1 WHERE fid = @Fid1;
+  IF @Fid2 IS NOT NULL
+  BEGIN
+    SET @Seats2 = @Seats2 - 1;
+    UPDATE Capacity SET capacity = @Seats2 WHERE fid = @Fid2;
+  END
+
+  -- reservation IDs are global and never reused
+  SELECT @ReservationID = ISNULL(MAX(ReservationID), 0) + 1 FROM Reservations WITH (UPDLOCK, HOLDLOCK);
+  INSERT INTO Reservations (ReservationID, IsPaid, IsCancelled, ItineraryID, UserName, fid1, fid2, Price)
+  VALUES (@ReservationID, 0, 0, @ItineraryID, @UserName, @Fid1, @Fid2, @Price);
+  COMMIT;
+  SET @Result = 0;
+END
+$$
+
+-- Result: 0 paid, 1 no unpaid reservation of the user, 2 already paid, 3 balance too low.
+-- Balance is the remaining balance, or the current one when it is too low for Price.
+CREATE OR ALTER PROCEDURE PayReservation
+  @UserName VARCHAR(20),
+  @ReservationID INT,
+  @Result INT OUTPUT,
+  @Balance INT OUTPUT,
+  @Price INT OUTPUT
+AS
+BEGIN
+  SET NOCOUNT ON;
+  SET XACT_ABORT ON;
+  DECLARE @IsPaid INT;
+
+  BEGIN TRANSACTION;
+  SELECT @IsPaid = IsPaid, @Price = Price FROM Reservations WITH (UPDLOCK)
+  WHERE ReservationID = @ReservationID AND UserName = @UserName AND IsCancelled = 0;
+  IF @@ROWCOUNT = 0
+  BEGIN
+    ROLLBACK;
+    SET @Result = 1;
+    RETURN;
+  END
+  IF @IsPaid = 1
+  BEGIN
+    ROLLBACK;
+    SET @Result = 2;
+    RETURN;
+  END
+
+  SELECT @Balance = Balance FROM Users WITH (UPDLOCK) WHERE UserName = @UserName;
+  IF @Price > @Balance
+  BEGIN
+    ROLLBACK;
+    SET @Result = 3;
+    RETURN;
+  END
+
+  SET @Balance = @Balance - @Price;
+  UPDATE Users SET Balance = @Balance WHERE UserName = @UserName;
+  UPDATE Reservations SET IsPaid = 1 WHERE ReservationID = @ReservationID;
+  COMMIT;
+  SET @Result = 0;
+END
+$$
+
+-- Result: 0 canceled, 1 no live reservation of the user.
+-- Paid reservations are refunded. Fid/Seats report the seats left after giving them back.
+CREATE OR ALTER PROCEDURE CancelReservation
+  @UserName VARCHAR(20),
+  @ReservationID INT,
+  @Result INT OUTPUT,
+  @Fid1 INT OUTPUT,
+  @Seats1 INT OUTPUT,
+  @Fid2 INT OUTPUT,
+  @Seats2 INT OUTPUT
+AS
+BEGIN
+  SET NOCOUNT ON;
+  SET XACT_ABORT ON;
+  DECLARE @IsPaid INT, @Price INT;
+
+  BEGIN TRANSACTION;
+  SELECT @IsPaid = IsPaid, @Price = Price, @Fid1 = fid1, @Fid2 = fid2 FROM Reservations WITH (UPDLOCK)
+  WHERE ReservationID = @ReservationID AND UserName = @UserName AND IsCancelled = 0;
+  IF @@ROWCOUNT = 0
+  BEGIN
+    ROLLBACK;
+    SET @Result = 1;
+    RETURN;
+  END
+
+  IF @IsPaid = 1
+    UPDATE Users SET Balance = Balance + @Price WHERE UserName = @UserName;
+  UPDATE Reservations SET IsCancelled = 1 WHERE ReservationID = @ReservationID;
+  UPDATE Capacity SET @Seats1 = capacity = capacity + 1 WHERE fid = @Fid1;
+  IF @Fid2 IS NOT NULL
+    UPDATE Capacity SET @Seats2 = capacity = capacity + 1 WHERE fid = @Fid2;
+  COMMIT;
+  SET @Result = 0;
+END
+$$
+
+-- @DELIMITER ;
@@ -0,0 +1,26 @@
+-- Log of Capacity changes, read by flightapp.CapacityChangePoller so that every app node can keep
+-- its in-memory seat availability current. See V6 for when the trigger runs and how rows are purged.
+
+IF OBJECT_ID('CapacityChanges') IS NULL
+CREATE TABLE CapacityChanges (
+ChangeID BIGINT IDENTITY PRIMARY KEY,
+fid INT NOT NULL,
+capacity INT,
+ChangedAt DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME()
+);
+
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_CapacityChanges_ChangedAt')
+CREATE INDEX IX_CapacityChanges_ChangedAt ON CapacityChanges (ChangedAt);
+
+-- @DELIMITER $$
+
+-- Capacity must not be updated with an OUTPUT clause without INTO while this trigger exists.
+CREATE OR ALTER TRIGGER TR_Capacity_Changes ON Capacity AFTER INSERT, UPDATE
+AS
+BEGIN
+  SET NOCOUNT ON;
+  INSERT INTO CapacityChanges (fid, capacity) SELECT fid, capacity FROM inserted;
+END
+$$
+
+-- @DELIMITER ;
@@ -0,0 +1,25 @@
+-- Change counter for Flights, read by flightapp.FlightsVersion so that every app node drops its
+-- cached searches and flight indexes after the flights change. The trigger bumps it on any change
+-- to Flights; flightapp.ConnectionsBuilder bumps it again after rebuilding Connections.
+
+IF OBJECT_ID('FlightsVersion') IS NULL
+CREATE TABLE FlightsVersion (
+Version BIGINT NOT NULL
+);
+
+IF NOT EXISTS (SELECT * FROM FlightsVersion)
+INSERT INTO FlightsVersion (Version) VALUES (0);
+
+-- @DELIMITER $$
+
+-- Flights outlives the app tables, so the counter may have been dropped.
+CREATE OR ALTER TRIGGER TR_Flights_Version ON Flights AFTER INSERT, UPDATE, DELETE
+AS
+BEGIN
+  SET NOCOUNT ON;
+  IF OBJECT_ID('FlightsVersion') IS NOT NULL
+    UPDATE FlightsVersion SET Version = Version + 1;
+END
+$$
+
+-- @DELIMITER ;
@@ -0,0 +1,21 @@
+-- The CapacityChanges log only has readers while some app node runs a
+-- flightapp.CapacityChangePoller, so the trigger starts disabled and each poller enables it when
+-- it starts. Once enabled, the trigger also purges the rows older than the retention period
+-- itself, so the log stays small even after every poller is gone. The retention, 600 seconds,
+-- must match CapacityChangePoller.RETENTION_SECONDS.
+
+-- @DELIMITER $$
+
+CREATE OR ALTER TRIGGER TR_Capacity_Changes ON Capacity AFTER INSERT, UPDATE
+AS
+BEGIN
+  SET NOCOUNT ON;
+  INSERT INTO CapacityChanges (fid, capacity) SELECT fid, capacity FROM inserted;
+  -- a few rows per change keep up with the inserts without long deletes
+  DELETE TOP (100) FROM CapacityChanges WHERE ChangedAt < DATEADD(second, -600, SYSUTCDATETIME());
+END
+$$
+
+-- @DELIMITER ;
+
+DISABLE TRIGGER TR_Capacity_Changes ON Capacity;
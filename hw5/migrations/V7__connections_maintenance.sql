@@ -0,0 +1,31 @@
+-- Keeps Connections in step with Flights: whenever Flights rows are inserted, updated (e.g.
+-- canceled) or deleted, the connections that use them are recomputed in the same transaction,
+-- like flightapp.ConnectionsBuilder's refresh. Until Connections has been built (it is empty),
+-- changes are ignored, so loading Flights does not build it row by row.
+
+-- @DELIMITER $$
+
+CREATE OR ALTER TRIGGER TR_Flights_Connections ON Flights AFTER INSERT, UPDATE, DELETE
+AS
+BEGIN
+  SET NOCOUNT ON;
+  IF OBJECT_ID('Connections') IS NULL OR NOT EXISTS (SELECT * FROM Connections)
+    RETURN;
+
+  DECLARE @changed TABLE (fid INT PRIMARY KEY);
+  INSERT INTO @changed (fid) SELECT fid FROM inserted UNION SELECT fid FROM deleted;
+
+  DELETE FROM Connections
+  WHERE fid1 IN (SELECT fid FROM @changed) OR fid2 IN (SELECT fid FROM @changed);
+
+  -- same join conditions as the indirect search
+  INSERT INTO Connections (day_of_month, origin_city, dest_city, total_time, fid1, fid2)
+  SELECT f1.day_of_month, f1.origin_city, f2.dest_city, f1.actual_time + f2.actual_time, f1.fid, f2.fid
+  FROM Flights AS f1, Flights AS f2
+  WHERE (f1.fid IN (SELECT fid FROM @changed) OR f2.fid IN (SELECT fid FROM @changed))
+    AND f2.day_of_month = f1.day_of_month AND f1.dest_city = f2.origin_city
+    AND f1.canceled = 0 AND f2.canceled = 0;
+END
+$$
+
+-- @DELIMITER ;
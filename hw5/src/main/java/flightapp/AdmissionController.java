@@ -0,0 +1,180 @@
+package flightapp;
+
+import java.util.*;
+
+/**
+ * Sheds load per command type before it reaches the database.
+ *
+ * Every command type that does real work has its own concurrency limit, so a flood of expensive
+ * commands (PBKDF2 logins, booking transactions) cannot slow down cheap ones. A command that
+ * arrives while its type is at the limit is rejected at once instead of queueing.
+ *
+ * Limits adapt to observed latency (AIMD with a gradient, as in Netflix's concurrency limits):
+ * each type keeps a short-term and a long-term moving average of its latency. Only commands that
+ * complete while their type is at its limit say anything about the limit, so only they change it:
+ * if the short-term average has grown past {@code tolerance} times the long-term one, the
+ * database is slowing down and the limit is cut by 10%; otherwise it rises by one over the
+ * limit, about one per limit's worth of commands. Averages, unlike the fastest latency seen, do
+ * not mistake a type's usual cache misses for congestion, and one slower command moves them
+ * little.
+ *
+ * Enabled with -Dflightapp.admission=true. Initial limits default to twice the number of cores for
+ * login and create, which are CPU-bound, and can be set per type, e.g.
+ * -Dflightapp.admission.book.limit=16.
+ */
+public class AdmissionController {
+  private static final boolean ENABLED = Boolean.getBoolean("flightapp.admission");
+  private static final AdmissionController SHARED = new AdmissionController();
+
+  private static final double TOLERANCE =
+          Double.parseDouble(System.getProperty("flightapp.admission.tolerance", "2"));
+  private static final double DECREASE = 0.9;
+  // weight of each latency in the short-term and long-term averages
+  private static final double SHORT_TERM_WEIGHT = 0.1;
+  private static final double LONG_TERM_WEIGHT = 0.01;
+  private static final int MIN_LIMIT = 1;
+  private static final int MAX_LIMIT = Integer.getInteger("flightapp.admission.maxLimit", 1000);
+
+  private final Map<Command.Type, Limit> limits = new EnumMap<>(Command.Type.class);
+
+  public AdmissionController() {
+    this(0);
+  }
+
+  /**
+   * @param initial the initial limit of every limited type, or 0 for the configured defaults
+   */
+  AdmissionController(int initial) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (Command.Type type : Command.Type.values()) {
+      int defaultLimit;
+      switch (type) {
+        case LOGIN:
+        case CREATE:
+          defaultLimit = 2 * cores;
+          break;
+        case SEARCH:
+        case FLEXSEARCH:
+        case ROUTE:
+          defaultLimit = 32;
+          break;
+        case BOOK:
+        case RESERVATIONS:
+        case PAY:
+        case CANCEL:
+          defaultLimit = 16;
+          break;
+        default:
+          // answered without the database
+          continue;
+      }
+      String name = type.name().toLowerCase();
+      limits.put(type, new Limit(initial > 0 ? initial
+              : Integer.getInteger("flightapp.admission." + name + ".limit", defaultLimit)));
+    }
+  }
+
+  /**
+   * The controller in front of {@link FlightService#execute}, or null if admission control is off.
+   */
+  public static AdmissionController shared() {
+    return ENABLED ? SHARED : null;
+  }
+
+  /**
+   * Admits a command, or returns null if its type is at its limit. Every admitted command must be
+   * released.
+   */
+  public Permit tryAcquire(Command.Type type) {
+    Limit limit = limits.get(type);
+    if (limit == null) {
+      return Permit.UNLIMITED;
+    }
+    return limit.tryAcquire() ? new Permit(limit, System.nanoTime()) : null;
+  }
+
+  /**
+   * Current limit of a command type, or -1 if the type is never limited.
+   */
+  public int limit(Command.Type type) {
+    Limit limit = limits.get(type);
+    return limit == null ? -1 : limit.current();
+  }
+
+  /**
+   * An admitted command.
+   */
+  public static final class Permit {
+    private static final Permit UNLIMITED = new Permit(null, 0);
+
+    private final Limit limit;
+    private final long start;
+
+    private Permit(Limit limit, long start) {
+      this.limit = limit;
+      this.start = start;
+    }
+
+    /**
+     * Ends the command, feeding its latency back into its type's limit.
+     */
+    public void release() {
+      release(System.nanoTime() - start);
+    }
+
+    /**
+     * Ends the command as if it had taken {@code latency} nanoseconds.
+     */
+    void release(long latency) {
+      if (limit != null) {
+        limit.release(latency);
+      }
+    }
+  }
+
+  private static final class Limit {
+    private double limit;
+    private int inFlight;
+    // moving averages of the latency, in nanoseconds; 0 until the first command completes
+    private double shortTerm;
+    private double longTerm;
+
+    Limit(int initial) {
+      limit = initial;
+    }
+
+    synchronized int current() {
+      return (int) limit;
+    }
+
+    synchronized boolean tryAcquire() {
+      if (inFlight >= (int) limit) {
+        return false;
+      }
+      inFlight++;
+      return true;
+    }
+
+    synchronized void release(long latency) {
+      // commands in flight when this one completed, itself included
+      int admitted = inFlight--;
+      if (longTerm == 0) {
+        shortTerm = latency;
+        longTerm = latency;
+      } else {
+        shortTerm += SHORT_TERM_WEIGHT * (latency - shortTerm);
+        longTerm += LONG_TERM_WEIGHT * (latency - longTerm);
+      }
+      // below the limit, latency says nothing about it; above it, the command was admitted under a
+      // higher limit, which has been cut already
+      if (admitted != (int) limit) {
+        return;
+      }
+      if (shortTerm > TOLERANCE * longTerm) {
+        limit = Math.max(MIN_LIMIT, limit * DECREASE);
+      } else {
+        limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+      }
+    }
+  }
+}
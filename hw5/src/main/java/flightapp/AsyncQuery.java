@@ -0,0 +1,123 @@
+package flightapp;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking facade over one {@link Query} session.
+ *
+ * Every method returns at once with a future of the response the matching {@link Query} method
+ * would return. Operations run on an executor shared by all sessions, so many sessions need only
+ * a few threads. A Query is not thread-safe and its commands depend on each other (book needs the
+ * previous search), so the operations of one session run one at a time in submission order, each
+ * chained after the previous one.
+ */
+public class AsyncQuery {
+  // threads of the shared executor
+  private static final int THREADS = Integer.getInteger("flightapp.asyncThreads",
+          Runtime.getRuntime().availableProcessors());
+  private static ExecutorService sharedExecutor;
+
+  private final Query query;
+  private final Executor executor;
+  // completes when the last submitted operation has finished
+  private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+
+  public AsyncQuery(Query query) {
+    this(query, sharedExecutor());
+  }
+
+  public AsyncQuery(Query query, Executor executor) {
+    this.query = query;
+    this.executor = executor;
+  }
+
+  /**
+   * The executor used by sessions created without one, started on first use. It is bounded unless
+   * virtual threads are enabled, see {@link SessionExecutors}, and does not keep the JVM alive.
+   */
+  public static synchronized ExecutorService sharedExecutor() {
+    if (sharedExecutor == null) {
+      sharedExecutor = SessionExecutors.newExecutor(THREADS, "flightapp-async", true);
+    }
+    return sharedExecutor;
+  }
+
+  /**
+   * The session the operations run on. It must not be used directly while operations are pending.
+   */
+  public Query query() {
+    return query;
+  }
+
+  public CompletableFuture<String> loginAsync(String username, String password) {
+    return submit(() -> query.login(username, password));
+  }
+
+  public CompletableFuture<String> createCustomerAsync(String username, String password, int initAmount) {
+    return submit(() -> query.createCustomer(username, password, initAmount));
+  }
+
+  public CompletableFuture<String> searchAsync(String originCity, String destinationCity,
+                                               boolean directFlight, int dayOfMonth,
+                                               int numberOfItineraries) {
+    return submit(() -> query.search(originCity, destinationCity, directFlight, dayOfMonth,
+            numberOfItineraries));
+  }
+
+  public CompletableFuture<String> searchRankedAsync(String originCity, String destinationCity,
+                                                     boolean directFlight, int dayOfMonth,
+                                                     int numberOfItineraries,
+                                                     ItineraryRanker.Order order,
+                                                     boolean availableOnly) {
+    return submit(() -> query.searchRanked(originCity, destinationCity, directFlight, dayOfMonth,
+            numberOfItineraries, order, availableOnly));
+  }
+
+  public CompletableFuture<String> searchMultiHopAsync(String originCity, String destinationCity,
+                                                       int maxFlights, int dayOfMonth,
+                                                       int numberOfItineraries) {
+    return submit(() -> query.searchMultiHop(originCity, destinationCity, maxFlights, dayOfMonth,
+            numberOfItineraries));
+  }
+
+  public CompletableFuture<String> searchFlexibleAsync(String originCity, String destinationCity,
+                                                       boolean directFlight, int dayOfMonth,
+                                                       int dayWindow, int numberOfItineraries) {
+    return submit(() -> query.searchFlexible(originCity, destinationCity, directFlight, dayOfMonth,
+            dayWindow, numberOfItineraries));
+  }
+
+  public CompletableFuture<String> bookAsync(int itineraryId) {
+    return submit(() -> query.book(itineraryId));
+  }
+
+  public CompletableFuture<String> payAsync(int reservationId) {
+    return submit(() -> query.pay(reservationId));
+  }
+
+  public CompletableFuture<String> reservationsAsync() {
+    return submit(query::reservations);
+  }
+
+  public CompletableFuture<String> cancelAsync(int reservationId) {
+    return submit(() -> query.cancel(reservationId));
+  }
+
+  /**
+   * Runs a command line, as typed at the REPL.
+   */
+  public CompletableFuture<String> executeAsync(String command) {
+    return submit(() -> FlightService.execute(query, command));
+  }
+
+  /**
+   * Queues an operation after the session's previous one, whether that succeeded or failed.
+   */
+  private synchronized CompletableFuture<String> submit(Supplier<String> operation) {
+    CompletableFuture<String> result = tail.handle((ignored, error) -> null)
+            .thenApplyAsync(ignored -> operation.get(), executor);
+    tail = result;
+    return result;
+  }
+}
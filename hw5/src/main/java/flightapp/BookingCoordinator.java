@@ -0,0 +1,285 @@
+package flightapp;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Commits the bookings of all sessions in groups, one transaction per group.
+ *
+ * Sessions hand their validated itinerary to {@link #book} and wait on the returned future. A
+ * single writer thread takes the first pending booking, keeps collecting for a short window, then
+ * checks the whole group in one serializable transaction: seats are read once per flight and
+ * counted down in memory, the same-day rule is checked against the database and the group itself,
+ * and the accepted reservations and capacity updates are written with JDBC batches. One commit,
+ * and so one log flush, covers the whole group.
+ */
+public class BookingCoordinator implements AutoCloseable {
+  private static final String CHECK_CAPACITY = "SELECT capacity FROM Capacity WHERE fid = ?";
+
+  private static final String UPDATE_CAPACITY = "UPDATE Capacity SET capacity = ? WHERE fid = ?";
+
+  // a live reservation of the user on the day
+  private static final String CHECK_SAME_DAY = "SELECT TOP (1) R.ReservationID FROM Reservations AS R " +
+          "JOIN Flights AS F ON R.fid1 = F.fid " +
+          "WHERE R.UserName = ? AND R.IsCancelled = 0 AND F.day_of_month = ?";
+
+  // reservation ids are global, as in Query and BookItinerary; the locks hold off their inserts
+  // until the group commits
+  private static final String MAX_RESERVATION_ID =
+          "SELECT ISNULL(MAX(ReservationID), 0) AS max_id FROM Reservations WITH (UPDLOCK, HOLDLOCK)";
+
+  private static final String INSERT_RESERVATION = "INSERT INTO Reservations " +
+          "(ReservationID,IsPaid,IsCancelled,ItineraryID,UserName,fid1,fid2,Price) VALUES (?,?,?,?,?,?,?,?)";
+
+  private static final String BOOKING_FAILED = "Booking failed\n";
+  private static final String SAME_DAY = "You cannot book two flights in the same day\n";
+
+  private final Connection conn;
+  private final PreparedStatement checkCapacityStatement;
+  private final PreparedStatement updateCapacityStatement;
+  private final PreparedStatement checkSameDayStatement;
+  private final PreparedStatement maxReservationIdStatement;
+  private final PreparedStatement insertReservationStatement;
+
+  private final long windowNanos;
+  private final BlockingQueue<Booking> pending = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  private volatile boolean closed;
+
+  /**
+   * @param conn         a connection used only by the coordinator
+   * @param windowMillis how long to collect bookings after the first one of a group arrives
+   */
+  public BookingCoordinator(Connection conn, long windowMillis) throws SQLException {
+    this.conn = conn;
+    checkCapacityStatement = conn.prepareStatement(CHECK_CAPACITY);
+    updateCapacityStatement = conn.prepareStatement(UPDATE_CAPACITY);
+    checkSameDayStatement = conn.prepareStatement(CHECK_SAME_DAY);
+    maxReservationIdStatement = conn.prepareStatement(MAX_RESERVATION_ID);
+    insertReservationStatement = conn.prepareStatement(INSERT_RESERVATION);
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    writer = new Thread(this::run, "flightapp-booking");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Creates a coordinator on its own connection from dbconn.properties, with the window given by
+   * -Dflightapp.groupCommitMillis (default 2).
+   */
+  public static BookingCoordinator fromDbConn() throws SQLException, IOException {
+    return new BookingCoordinator(QueryAbstract.openConnectionFromDbConn(),
+            Long.getLong("flightapp.groupCommitMillis", 2));
+  }
+
+  /**
+   * Queues a booking for the next group.
+   *
+   * @param fid2 the second flight, or 0 for a direct flight
+   * @return a future of the response book would return
+   */
+  public CompletableFuture<String> book(String userName, int itineraryId, int fid1, int fid2,
+                                        int price, int dayOfMonth) {
+    Booking booking = new Booking(userName, itineraryId, fid1, fid2, price, dayOfMonth);
+    if (closed) {
+      booking.result.complete(BOOKING_FAILED);
+    } else {
+      pending.add(booking);
+    }
+    return booking.result;
+  }
+
+  /**
+   * Stops the writer after the queued bookings and closes the connection.
+   */
+  @Override
+  public void close() throws SQLException {
+    closed = true;
+    writer.interrupt();
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // bookings that raced with close()
+    for (Booking booking; (booking = pending.poll()) != null; ) {
+      booking.result.complete(BOOKING_FAILED);
+    }
+    conn.close();
+  }
+
+  private void run() {
+    List<Booking> group = new ArrayList<>();
+    while (!closed || !pending.isEmpty()) {
+      try {
+        Booking first = closed ? pending.poll() : pending.take();
+        if (first == null) {
+          break;
+        }
+        group.add(first);
+        long deadline = System.nanoTime() + windowNanos;
+        long left;
+        while (!closed && (left = deadline - System.nanoTime()) > 0) {
+          Booking next = pending.poll(left, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          group.add(next);
+        }
+      } catch (InterruptedException e) {
+        // close() was called; finish what is queued
+        pending.drainTo(group);
+      }
+      pending.drainTo(group);
+      if (!group.isEmpty()) {
+        commit(group);
+        group.clear();
+      }
+    }
+  }
+
+  /**
+   * Validates and writes one group in a single transaction. If the transaction fails, every
+   * booking of the group fails.
+   */
+  private void commit(List<Booking> group) {
+    // seats left per flight, and the flights the group takes seats from
+    Map<Integer, Integer> seats = new HashMap<>();
+    Set<Integer> taken = new HashSet<>();
+    List<Booking> accepted = new ArrayList<>();
+    try {
+      conn.setAutoCommit(false);
+      try {
+        int reservationId = maxReservationId();
+        Set<String> booked = new HashSet<>();
+        for (Booking booking : group) {
+          booking.response = validate(booking, seats, taken, booked);
+          if (booking.response == null) {
+            booking.reservationId = ++reservationId;
+            addReservation(booking);
+            accepted.add(booking);
+          }
+        }
+        if (!accepted.isEmpty()) {
+          insertReservationStatement.executeBatch();
+          for (int fid : taken) {
+            updateCapacityStatement.setInt(1, seats.get(fid));
+            updateCapacityStatement.setInt(2, fid);
+            updateCapacityStatement.addBatch();
+          }
+          updateCapacityStatement.executeBatch();
+        }
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      } finally {
+        insertReservationStatement.clearBatch();
+        updateCapacityStatement.clearBatch();
+        conn.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      e.printStackTrace();
+      for (Booking booking : group) {
+        booking.result.complete(BOOKING_FAILED);
+      }
+      return;
+    }
+    for (int fid : taken) {
+      SeatAvailability.shared().update(fid, seats.get(fid));
+    }
+    for (Booking booking : group) {
+      booking.result.complete(booking.response != null ? booking.response
+              : "Booked flight(s), reservation ID: " + booking.reservationId + "\n");
+    }
+  }
+
+  /**
+   * Takes the booking's seats from {@code seats}, or returns the response it fails with.
+   */
+  private String validate(Booking booking, Map<Integer, Integer> seats, Set<Integer> taken,
+                          Set<String> booked) throws SQLException {
+    if (seats(booking.fid1, seats) <= 0 || (booking.fid2 != 0 && seats(booking.fid2, seats) <= 0)) {
+      return BOOKING_FAILED;
+    }
+    String userDay = booking.userName + "\n" + booking.dayOfMonth;
+    if (booked.contains(userDay) || hasReservationOn(booking.userName, booking.dayOfMonth)) {
+      return SAME_DAY;
+    }
+    booked.add(userDay);
+    seats.merge(booking.fid1, -1, Integer::sum);
+    taken.add(booking.fid1);
+    if (booking.fid2 != 0) {
+      seats.merge(booking.fid2, -1, Integer::sum);
+      taken.add(booking.fid2);
+    }
+    return null;
+  }
+
+  private int seats(int fid, Map<Integer, Integer> seats) throws SQLException {
+    Integer capacity = seats.get(fid);
+    if (capacity == null) {
+      checkCapacityStatement.setInt(1, fid);
+      try (ResultSet rs = checkCapacityStatement.executeQuery()) {
+        capacity = rs.next() ? rs.getInt("capacity") : 0;
+      }
+      seats.put(fid, capacity);
+    }
+    return capacity;
+  }
+
+  private boolean hasReservationOn(String userName, int dayOfMonth) throws SQLException {
+    checkSameDayStatement.setString(1, userName);
+    checkSameDayStatement.setInt(2, dayOfMonth);
+    try (ResultSet rs = checkSameDayStatement.executeQuery()) {
+      return rs.next();
+    }
+  }
+
+  private int maxReservationId() throws SQLException {
+    try (ResultSet rs = maxReservationIdStatement.executeQuery()) {
+      rs.next();
+      return rs.getInt("max_id");
+    }
+  }
+
+  private void addReservation(Booking booking) throws SQLException {
+    insertReservationStatement.setInt(1, booking.reservationId);
+    insertReservationStatement.setInt(2, 0);
+    insertReservationStatement.setInt(3, 0);
+    insertReservationStatement.setInt(4, booking.itineraryId);
+    insertReservationStatement.setString(5, booking.userName);
+    insertReservationStatement.setInt(6, booking.fid1);
+    if (booking.fid2 != 0) {
+      insertReservationStatement.setInt(7, booking.fid2);
+    } else {
+      insertReservationStatement.setNull(7, Types.INTEGER);
+    }
+    insertReservationStatement.setInt(8, booking.price);
+    insertReservationStatement.addBatch();
+  }
+
+  private static final class Booking {
+    private final String userName;
+    private final int itineraryId;
+    private final int fid1;
+    private final int fid2;
+    private final int price;
+    private final int dayOfMonth;
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    // set while the group is committed
+    private String response;
+    private int reservationId;
+
+    Booking(String userName, int itineraryId, int fid1, int fid2, int price, int dayOfMonth) {
+      this.userName = userName;
+      this.itineraryId = itineraryId;
+      this.fid1 = fid1;
+      this.fid2 = fid2;
+      this.price = price;
+      this.dayOfMonth = dayOfMonth;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package flightapp;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * {@link InvalidationBus} over the CapacityChanges table, which a trigger on Capacity fills with
+ * every change made by any node (see migrations/V4__capacity_changes.sql). The trigger is
+ * disabled until the first poller starts and enables it, and purges rows older than
+ * {@link #RETENTION_SECONDS} itself (see migrations/V6__capacity_changes_purge.sql).
+ *
+ * A poller thread reads the rows added since the last poll, in ChangeID order, and hands them to
+ * the listeners, so other nodes' bookings and cancellations reach this node within about one poll
+ * interval. {@link #publish} does nothing, since the trigger has already recorded the change.
+ *
+ * The connection is serializable, so a poll waits for uncommitted changes in its ChangeID range
+ * instead of skipping past them. If this node has not polled for the retention period, changes it
+ * never saw may be purged, so its listeners are reset instead.
+ */
+public class CapacityChangePoller implements InvalidationBus {
+  private static final String LAST_CHANGE = "SELECT ISNULL(MAX(ChangeID), 0) AS last_id FROM CapacityChanges";
+
+  private static final String CHANGES_SINCE = "SELECT ChangeID, fid, capacity FROM CapacityChanges " +
+          "WHERE ChangeID > ? ORDER BY ChangeID ASC";
+
+  private static final String ENABLE_TRIGGER = "ENABLE TRIGGER TR_Capacity_Changes ON Capacity";
+
+  /**
+   * How long the trigger keeps changes, in seconds; must match the trigger's DELETE.
+   */
+  public static final long RETENTION_SECONDS = 600;
+
+  private final Connection conn;
+  private final PreparedStatement lastChangeStatement;
+  private final PreparedStatement changesSinceStatement;
+
+  private final long intervalMillis;
+  private final long retentionMillis;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  private final Thread poller;
+  private volatile boolean closed;
+
+  private long lastChangeId;
+  private long lastPollMillis;
+
+  /**
+   * @param conn            a connection used only by the poller
+   * @param intervalMillis  time between polls
+   * @param retentionMillis how long the trigger keeps changes
+   */
+  public CapacityChangePoller(Connection conn, long intervalMillis, long retentionMillis) throws SQLException {
+    this.conn = conn;
+    try (PreparedStatement enable = conn.prepareStatement(ENABLE_TRIGGER)) {
+      enable.executeUpdate();
+    }
+    lastChangeStatement = conn.prepareStatement(LAST_CHANGE);
+    changesSinceStatement = conn.prepareStatement(CHANGES_SINCE);
+    this.intervalMillis = intervalMillis;
+    this.retentionMillis = retentionMillis;
+    // start from the newest change; earlier ones are already reflected in Capacity
+    try (ResultSet rs = lastChangeStatement.executeQuery()) {
+      rs.next();
+      lastChangeId = rs.getLong("last_id");
+    }
+    lastPollMillis = System.currentTimeMillis();
+    poller = new Thread(this::run, "flightapp-capacity-poller");
+    poller.setDaemon(true);
+    poller.start();
+  }
+
+  /**
+   * Creates a poller on its own connection from dbconn.properties, polling every
+   * -Dflightapp.capacityPollMillis (default 200).
+   */
+  public static CapacityChangePoller fromDbConn() throws SQLException, IOException {
+    return new CapacityChangePoller(QueryAbstract.openConnectionFromDbConn(),
+            Long.getLong("flightapp.capacityPollMillis", 200), TimeUnit.SECONDS.toMillis(RETENTION_SECONDS));
+  }
+
+  @Override
+  public void publish(int fid, int capacity) {
+    // recorded by the trigger on Capacity
+  }
+
+  @Override
+  public void subscribe(Listener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Stops the poller and closes the connection.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    poller.interrupt();
+    try {
+      poller.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      conn.close();
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void run() {
+    while (!closed) {
+      try {
+        Thread.sleep(intervalMillis);
+      } catch (InterruptedException e) {
+        break;
+      }
+      try {
+        poll();
+      } catch (SQLException e) {
+        // try again on the next poll
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Delivers the changes made since the last poll.
+   */
+  private void poll() throws SQLException {
+    long now = System.currentTimeMillis();
+    if (now - lastPollMillis > retentionMillis) {
+      // changes this node never saw may have been purged
+      lastChangeId = lastChangeId();
+      for (Listener listener : listeners) {
+        listener.reset();
+      }
+    }
+    changesSinceStatement.clearParameters();
+    changesSinceStatement.setLong(1, lastChangeId);
+    try (ResultSet rs = changesSinceStatement.executeQuery()) {
+      while (rs.next()) {
+        lastChangeId = rs.getLong("ChangeID");
+        int fid = rs.getInt("fid");
+        int capacity = rs.getInt("capacity");
+        for (Listener listener : listeners) {
+          listener.capacityChanged(fid, capacity);
+        }
+      }
+    }
+    lastPollMillis = now;
+  }
+
+  private long lastChangeId() throws SQLException {
+    try (ResultSet rs = lastChangeStatement.executeQuery()) {
+      rs.next();
+      return rs.getLong("last_id");
+    }
+  }
+}
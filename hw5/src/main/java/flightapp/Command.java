@@ -0,0 +1,144 @@
+package flightapp;
+
+import java.util.Arrays;
+
+/**
+ * A REPL command split into its type and argument tokens.
+ */
+public class Command {
+  /**
+   * The commands understood by {@link FlightService#execute(Query, Command)}.
+   */
+  public enum Type {
+    EMPTY, LOGIN, CREATE, SEARCH, FLEXSEARCH, ROUTE, BOOK, RESERVATIONS, PAY, CANCEL, QUIT, UNKNOWN
+  }
+
+  private static final String[] NO_TOKENS = new String[0];
+
+  private final Type type;
+  private final String[] tokens;
+  private final int size;
+
+  private Command(Type type, String[] tokens, int size) {
+    this.type = type;
+    this.tokens = tokens;
+    this.size = size;
+  }
+
+  public Type type() {
+    return type;
+  }
+
+  /**
+   * Number of tokens, including the command name.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Token {@code i}, where token 0 is the command name.
+   */
+  public String token(int i) {
+    if (i >= size) {
+      throw new IndexOutOfBoundsException("Token " + i + " of " + size);
+    }
+    return tokens[i];
+  }
+
+  /**
+   * The tokens as an array, token 0 being the command name.
+   */
+  public String[] tokens() {
+    return Arrays.copyOf(tokens, size);
+  }
+
+  /**
+   * Parses a command line.
+   *
+   * Tokens are separated by whitespace. A token starting with a double quote extends to the next
+   * double quote, so city names can contain spaces; the quotes are not part of the token. A
+   * double quote that is never closed is an ordinary character. Like {@link String#trim()}, leading
+   * and trailing control characters are ignored.
+   */
+  public static Command parse(CharSequence command) {
+    String[] tokens = NO_TOKENS;
+    int size = 0;
+    int length = command.length();
+    while (length > 0 && command.charAt(length - 1) <= ' ') {
+      length--;
+    }
+    // once a scan for a closing quote fails, no later quote can be closed either
+    boolean unclosed = false;
+    int i = 0;
+    while (i < length && command.charAt(i) <= ' ') {
+      i++;
+    }
+    while (i < length) {
+      char c = command.charAt(i);
+      if (isSpace(c)) {
+        i++;
+        continue;
+      }
+      String token = null;
+      if (c == '"' && !unclosed) {
+        int close = i + 1;
+        while (close < length && command.charAt(close) != '"') {
+          close++;
+        }
+        if (close < length) {
+          token = command.subSequence(i + 1, close).toString();
+          i = close + 1;
+        } else {
+          unclosed = true;
+        }
+      }
+      if (token == null) {
+        int start = i;
+        while (i < length && !isSpace(command.charAt(i))) {
+          i++;
+        }
+        token = command.subSequence(start, i).toString();
+      }
+      if (size == tokens.length) {
+        tokens = Arrays.copyOf(tokens, size == 0 ? 8 : size * 2);
+      }
+      tokens[size++] = token;
+    }
+    return new Command(size == 0 ? Type.EMPTY : typeOf(tokens[0]), tokens, size);
+  }
+
+  private static Type typeOf(String name) {
+    switch (name) {
+      case "login":
+        return Type.LOGIN;
+      case "create":
+        return Type.CREATE;
+      case "search":
+        return Type.SEARCH;
+      case "flexsearch":
+        return Type.FLEXSEARCH;
+      case "route":
+        return Type.ROUTE;
+      case "book":
+        return Type.BOOK;
+      case "reservations":
+        return Type.RESERVATIONS;
+      case "pay":
+        return Type.PAY;
+      case "cancel":
+        return Type.CANCEL;
+      case "quit":
+        return Type.QUIT;
+      default:
+        return Type.UNKNOWN;
+    }
+  }
+
+  /**
+   * Whitespace as matched by the regular expression class \s.
+   */
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+}
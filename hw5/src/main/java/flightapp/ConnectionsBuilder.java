@@ -0,0 +1,175 @@
+package flightapp;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Builds and maintains the Connections table, the precomputed one-stop join of Flights.
+ *
+ * A full build runs one batch per day of the month, spread over a fixed number of worker
+ * threads that each hold their own database connection. Once built, the table follows changes to
+ * Flights by itself: the trigger of migrations/V7__connections_maintenance.sql recomputes the
+ * connections of every Flights row that is inserted, updated or deleted. {@link #refresh(int)}
+ * does the same for one flight, to repair the table by hand.
+ */
+public class ConnectionsBuilder {
+  private static final int DAYS_IN_MONTH = 31;
+
+  // drop a day's connections before rebuilding it
+  private static final String DELETE_DAY = "DELETE FROM Connections WHERE day_of_month = ?";
+
+  // every one-stop pair for a day, with the same join conditions as the indirect search
+  private static final String INSERT_DAY = "INSERT INTO Connections " +
+          "(day_of_month, origin_city, dest_city, total_time, fid1, fid2) " +
+          "SELECT f1.day_of_month, f1.origin_city, f2.dest_city, f1.actual_time + f2.actual_time, " +
+          "f1.fid, f2.fid FROM Flights AS f1, Flights AS f2 " +
+          "WHERE f1.day_of_month = ? AND f2.day_of_month = f1.day_of_month AND " +
+          "f1.dest_city = f2.origin_city AND f1.canceled = 0 AND f2.canceled = 0";
+
+  // drop every connection that uses a flight
+  private static final String DELETE_FLIGHT = "DELETE FROM Connections WHERE fid1 = ? OR fid2 = ?";
+
+  // tell every app node to drop its cached searches, see FlightsVersion
+  private static final String BUMP_FLIGHTS_VERSION = "UPDATE FlightsVersion SET Version = Version + 1";
+
+  // re-add the connections of a flight, as either leg, unless it has been canceled
+  private static final String INSERT_FLIGHT = "INSERT INTO Connections " +
+          "(day_of_month, origin_city, dest_city, total_time, fid1, fid2) " +
+          "SELECT f1.day_of_month, f1.origin_city, f2.dest_city, f1.actual_time + f2.actual_time, " +
+          "f1.fid, f2.fid FROM Flights AS f1, Flights AS f2 " +
+          "WHERE (f1.fid = ? OR f2.fid = ?) AND f2.day_of_month = f1.day_of_month AND " +
+          "f1.dest_city = f2.origin_city AND f1.canceled = 0 AND f2.canceled = 0";
+
+  /**
+   * Opens a new database connection for a worker.
+   */
+  public interface ConnectionSource {
+    Connection open() throws SQLException, IOException;
+  }
+
+  private final ConnectionSource source;
+
+  public ConnectionsBuilder(ConnectionSource source) {
+    this.source = source;
+  }
+
+  /**
+   * Rebuilds the whole table, one day per batch.
+   *
+   * @param threads number of days built concurrently
+   */
+  public void build(int threads) throws SQLException, IOException {
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> days = new ArrayList<>();
+      for (int day = 1; day <= DAYS_IN_MONTH; day++) {
+        final int batchDay = day;
+        days.add(workers.submit(() -> {
+          buildDay(batchDay);
+          return null;
+        }));
+      }
+      for (Future<Void> day : days) {
+        day.get();
+      }
+      bumpFlightsVersion();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while building connections", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SQLException) {
+        throw (SQLException) e.getCause();
+      }
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Rebuilds the connections of one day in a single transaction.
+   */
+  public void buildDay(int day) throws SQLException, IOException {
+    try (Connection conn = source.open();
+         PreparedStatement delete = conn.prepareStatement(DELETE_DAY);
+         PreparedStatement insert = conn.prepareStatement(INSERT_DAY)) {
+      conn.setAutoCommit(false);
+      try {
+        delete.setInt(1, day);
+        delete.executeUpdate();
+        insert.setInt(1, day);
+        insert.executeUpdate();
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
+    }
+  }
+
+  /**
+   * Recomputes the connections that use the given flight, as the Flights trigger does when its
+   * row changes or it gets canceled.
+   */
+  public void refresh(int fid) throws SQLException, IOException {
+    try (Connection conn = source.open();
+         PreparedStatement delete = conn.prepareStatement(DELETE_FLIGHT);
+         PreparedStatement insert = conn.prepareStatement(INSERT_FLIGHT);
+         PreparedStatement bump = conn.prepareStatement(BUMP_FLIGHTS_VERSION)) {
+      conn.setAutoCommit(false);
+      try {
+        delete.setInt(1, fid);
+        delete.setInt(2, fid);
+        delete.executeUpdate();
+        insert.setInt(1, fid);
+        insert.setInt(2, fid);
+        insert.executeUpdate();
+        // the flight's row changed, so the app nodes' cached search results may be stale
+        bump.executeUpdate();
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
+    }
+  }
+
+  /**
+   * Bumps the Flights version after a full build.
+   */
+  private void bumpFlightsVersion() throws SQLException, IOException {
+    try (Connection conn = source.open();
+         PreparedStatement bump = conn.prepareStatement(BUMP_FLIGHTS_VERSION)) {
+      bump.executeUpdate();
+    }
+  }
+
+  /**
+   * Usage: build [threads] | refresh fid...
+   */
+  public static void main(String[] args) throws SQLException, IOException {
+    ConnectionsBuilder builder = new ConnectionsBuilder(QueryAbstract::openConnectionFromDbConn);
+    if (args.length >= 1 && args[0].equals("build")) {
+      int threads = args.length >= 2 ? Integer.parseInt(args[1])
+              : Runtime.getRuntime().availableProcessors();
+      builder.build(threads);
+      System.out.println("Built connections for " + DAYS_IN_MONTH + " days");
+    } else if (args.length >= 2 && args[0].equals("refresh")) {
+      for (int i = 1; i < args.length; i++) {
+        builder.refresh(Integer.parseInt(args[i]));
+      }
+      System.out.println("Refreshed connections for " + (args.length - 1) + " flight(s)");
+    } else {
+      System.out.println("Usage: ConnectionsBuilder build [threads] | refresh <fid>...");
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package flightapp;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * In-memory index of one day's non-canceled flights, by origin and by destination city. Both
+ * indexes are lists indexed by {@link NameDictionary#cities()} id.
+ *
+ * The Flights table is treated as static, so each day is loaded once per JVM and shared by every
+ * session, until {@link FlightsVersion} sees that Flights changed and calls {@link #invalidateAll()}.
+ */
+public class FlightIndex {
+  private static final Map<Integer, FlightIndex> DAYS = new ConcurrentHashMap<>();
+
+  /**
+   * Loads the flights of one day from the database.
+   */
+  public interface Loader {
+    List<Query.Flight> load(int dayOfMonth) throws SQLException;
+  }
+
+  private final int dayOfMonth;
+  private final List<Query.Flight> flights;
+  private final List<List<Query.Flight>> departures;
+  private final List<List<Query.Flight>> arrivals;
+  // fids of flights, for lookups by fid
+  private final int[] fids;
+  private final int maxTime;
+
+  public FlightIndex(int dayOfMonth, List<Query.Flight> flights) {
+    this.dayOfMonth = dayOfMonth;
+    List<Query.Flight> byFid = new ArrayList<>(flights);
+    byFid.sort(Comparator.comparingInt(flight -> flight.fid));
+    this.flights = Collections.unmodifiableList(byFid);
+    fids = new int[byFid.size()];
+    int cities = 0;
+    int longest = 0;
+    for (int i = 0; i < fids.length; i++) {
+      Query.Flight flight = byFid.get(i);
+      fids[i] = flight.fid;
+      cities = Math.max(cities, Math.max(flight.origin, flight.dest) + 1);
+      longest = Math.max(longest, flight.time);
+    }
+    maxTime = longest;
+    departures = new ArrayList<>(Collections.nCopies(cities, (List<Query.Flight>) null));
+    arrivals = new ArrayList<>(Collections.nCopies(cities, (List<Query.Flight>) null));
+    for (Query.Flight flight : this.flights) {
+      add(departures, flight.origin, flight);
+      add(arrivals, flight.dest, flight);
+    }
+  }
+
+  private static void add(List<List<Query.Flight>> byCity, int city, Query.Flight flight) {
+    if (city == NameDictionary.NULL_ID) {
+      return;
+    }
+    if (byCity.get(city) == null) {
+      byCity.set(city, new ArrayList<>());
+    }
+    byCity.get(city).add(flight);
+  }
+
+  /**
+   * Returns the shared index of a day, loading it on first use.
+   */
+  public static FlightIndex forDay(int dayOfMonth, Loader loader) throws SQLException {
+    FlightIndex index = DAYS.get(dayOfMonth);
+    if (index == null) {
+      index = new FlightIndex(dayOfMonth, loader.load(dayOfMonth));
+      FlightIndex raced = DAYS.putIfAbsent(dayOfMonth, index);
+      if (raced != null) {
+        index = raced;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Drops every loaded day, called when the Flights table changes.
+   */
+  public static void invalidateAll() {
+    DAYS.clear();
+  }
+
+  public int dayOfMonth() {
+    return dayOfMonth;
+  }
+
+  /**
+   * The flights of the day, in fid order.
+   */
+  public List<Query.Flight> flights() {
+    return flights;
+  }
+
+  /**
+   * The flight with the given fid, or null if it is not a flight of this day.
+   */
+  public Query.Flight flight(int fid) {
+    int i = Arrays.binarySearch(fids, fid);
+    return i >= 0 ? flights.get(i) : null;
+  }
+
+  public int maxFid() {
+    return fids.length == 0 ? 0 : fids[fids.length - 1];
+  }
+
+  /**
+   * Longest flight time of the day.
+   */
+  public int maxTime() {
+    return maxTime;
+  }
+
+  /**
+   * Number of city ids the index covers; higher ids have no flights this day.
+   */
+  public int cities() {
+    return departures.size();
+  }
+
+  /**
+   * Flights leaving the city with id {@code city}, in fid order.
+   */
+  public List<Query.Flight> departures(int city) {
+    return flightsOf(departures, city);
+  }
+
+  /**
+   * Flights arriving at the city with id {@code city}, in fid order.
+   */
+  public List<Query.Flight> arrivals(int city) {
+    return flightsOf(arrivals, city);
+  }
+
+  private static List<Query.Flight> flightsOf(List<List<Query.Flight>> byCity, int city) {
+    List<Query.Flight> flights = city < 0 || city >= byCity.size() ? null : byCity.get(city);
+    return flights != null ? flights : Collections.emptyList();
+  }
+}
@@ -2,7 +2,6 @@ package flightapp;
 
 import java.io.*;
 import java.util.*;
-import java.util.regex.*;
 import java.sql.*;
 
 public class FlightService {
@@ -11,98 +10,187 @@ public class FlightService {
    * Execute the specified command on the database query connection
    */
   public static String execute(Query q, String command) {
-    String[] tokens = tokenize(command.trim());
-    String response;
-
-    // empty input
-    if (tokens.length == 0) {
-      response = "Please enter a command";
-    }
+    return execute(q, Command.parse(command));
+  }
 
-    // login
-    else if (tokens[0].equals("login")) {
-      if (tokens.length == 3) {
-        String username = tokens[1];
-        String password = tokens[2];
-        response = q.login(username, password);
-      } else {
-        response = "Error: Please provide a username and password";
+  /**
+   * Execute an already parsed command on the database query connection, unless rate limiting or
+   * admission control sheds it
+   */
+  public static String execute(Query q, Command command) {
+    RateLimiter rateLimiter = RateLimiter.shared();
+    if (rateLimiter != null) {
+      // one budget per user across sessions, or per session before login; keyed by the session's
+      // id, as buckets outlive sessions
+      Object client = q.getLoginUserName() != null ? q.getLoginUserName() : q.getSessionId();
+      if (!rateLimiter.tryAcquire(client, command.type())) {
+        return "Too many requests, please slow down\n";
       }
     }
-
-    // create
-    else if (tokens[0].equals("create")) {
-      if (tokens.length == 4) {
-        String username = tokens[1];
-        String password = tokens[2];
-        int initAmount = Integer.parseInt(tokens[3]);
-        response = q.createCustomer(username, password, initAmount);
-      } else {
-        response = "Error: Please provide a username, password, and initial amount in the account";
-      }
+    AdmissionController admission = AdmissionController.shared();
+    if (admission == null) {
+      return dispatch(q, command);
+    }
+    AdmissionController.Permit permit = admission.tryAcquire(command.type());
+    if (permit == null) {
+      return "Server busy, please try again\n";
     }
+    try {
+      return dispatch(q, command);
+    } finally {
+      permit.release();
+    }
+  }
+
+  private static String dispatch(Query q, Command command) {
+    String response;
+    switch (command.type()) {
+      // empty input
+      case EMPTY:
+        response = "Please enter a command";
+        break;
 
-    // search
-    else if (tokens[0].equals("search")) {
-      if (tokens.length == 6) {
-        String originCity = tokens[1];
-        String destinationCity = tokens[2];
-        boolean direct = tokens[3].equals("1");
-        try {
-          int day = Integer.valueOf(tokens[4]);
-          int count = Integer.valueOf(tokens[5]);
-          response = q.search(originCity, destinationCity, direct, day, count);
-        } catch (NumberFormatException e) {
-          response = "Failed to parse integer";
+      // login
+      case LOGIN:
+        if (command.size() == 3) {
+          String username = command.token(1);
+          String password = command.token(2);
+          response = q.login(username, password);
+        } else {
+          response = "Error: Please provide a username and password";
         }
-      } else {
-        response = "Error: Please provide all search parameters <origin_city> <destination_city> <direct> <date> <nb itineraries>";
-      }
-    }
+        break;
 
-    // book
-    else if (tokens[0].equals("book")) {
-      if (tokens.length == 2) {
-        int itinerary_id = Integer.parseInt(tokens[1]);
-        response = q.book(itinerary_id);
-      } else {
-        response = "Error: Please provide an itinerary_id";
-      }
-    }
+      // create
+      case CREATE:
+        if (command.size() == 4) {
+          String username = command.token(1);
+          String password = command.token(2);
+          int initAmount = Integer.parseInt(command.token(3));
+          response = q.createCustomer(username, password, initAmount);
+        } else {
+          response = "Error: Please provide a username, password, and initial amount in the account";
+        }
+        break;
 
-    // reservations
-    else if (tokens[0].equals("reservations")) {
-      response = q.reservations();
-    }
+      // search
+      case SEARCH:
+        if (command.size() >= 6 && command.size() <= 8) {
+          String originCity = command.token(1);
+          String destinationCity = command.token(2);
+          boolean direct = command.token(3).equals("1");
+          // trailing options: a search order and/or "available"
+          ItineraryRanker.Order order = ItineraryRanker.Order.TIME;
+          boolean availableOnly = false;
+          for (int i = 6; i < command.size() && order != null; i++) {
+            if (command.token(i).equals("available")) {
+              availableOnly = true;
+            } else {
+              order = ItineraryRanker.Order.parse(command.token(i));
+            }
+          }
+          if (order == null) {
+            response = "Error: Please provide a search order of time, price, score or pareto";
+            break;
+          }
+          try {
+            int day = Integer.parseInt(command.token(4));
+            int count = Integer.parseInt(command.token(5));
+            if (order == ItineraryRanker.Order.TIME && !availableOnly) {
+              response = q.search(originCity, destinationCity, direct, day, count);
+            } else {
+              response = q.searchRanked(originCity, destinationCity, direct, day, count, order,
+                  availableOnly);
+            }
+          } catch (NumberFormatException e) {
+            response = "Failed to parse integer";
+          }
+        } else {
+          response = "Error: Please provide all search parameters <origin_city> <destination_city> <direct> <date> <nb itineraries> [order] [available]";
+        }
+        break;
 
-    // pay
-    else if (tokens[0].equals("pay")) {
-      if (tokens.length == 2) {
-        int reservation_id = Integer.parseInt(tokens[1]);
-        response = q.pay(reservation_id);
-      } else {
-        response = "Error: Please provide a reservation_id";
-      }
-    }
+      // flexible-date search
+      case FLEXSEARCH:
+        if (command.size() == 7) {
+          String originCity = command.token(1);
+          String destinationCity = command.token(2);
+          boolean direct = command.token(3).equals("1");
+          try {
+            int day = Integer.parseInt(command.token(4));
+            int window = Integer.parseInt(command.token(5));
+            int count = Integer.parseInt(command.token(6));
+            response = q.searchFlexible(originCity, destinationCity, direct, day, window, count);
+          } catch (NumberFormatException e) {
+            response = "Failed to parse integer";
+          }
+        } else {
+          response = "Error: Please provide all flexsearch parameters <origin_city> <destination_city> <direct> <date> <days before/after> <nb itineraries>";
+        }
+        break;
 
-    // cancel
-    else if (tokens[0].equals("cancel")) {
-      if (tokens.length == 2) {
-        int reservation_id = Integer.parseInt(tokens[1]);
-        response = q.cancel(reservation_id);
-      } else {
-        response = "Error: Please provide a reservation_id";
-      }
-    }
+      // multi-hop search
+      case ROUTE:
+        if (command.size() == 6) {
+          String originCity = command.token(1);
+          String destinationCity = command.token(2);
+          try {
+            int maxFlights = Integer.parseInt(command.token(3));
+            int day = Integer.parseInt(command.token(4));
+            int count = Integer.parseInt(command.token(5));
+            response = q.searchMultiHop(originCity, destinationCity, maxFlights, day, count);
+          } catch (NumberFormatException e) {
+            response = "Failed to parse integer";
+          }
+        } else {
+          response = "Error: Please provide all route parameters <origin_city> <destination_city> <max flights> <date> <nb itineraries>";
+        }
+        break;
 
-    // quit
-    else if (tokens[0].equals("quit")) {
-      response = "Goodbye\n";
-    }
+      // book
+      case BOOK:
+        if (command.size() == 2) {
+          int itinerary_id = Integer.parseInt(command.token(1));
+          response = q.book(itinerary_id);
+        } else {
+          response = "Error: Please provide an itinerary_id";
+        }
+        break;
+
+      // reservations
+      case RESERVATIONS:
+        response = q.reservations();
+        break;
+
+      // pay
+      case PAY:
+        if (command.size() == 2) {
+          int reservation_id = Integer.parseInt(command.token(1));
+          response = q.pay(reservation_id);
+        } else {
+          response = "Error: Please provide a reservation_id";
+        }
+        break;
+
+      // cancel
+      case CANCEL:
+        if (command.size() == 2) {
+          int reservation_id = Integer.parseInt(command.token(1));
+          response = q.cancel(reservation_id);
+        } else {
+          response = "Error: Please provide a reservation_id";
+        }
+        break;
+
+      // quit
+      case QUIT:
+        response = "Goodbye\n";
+        break;
 
-    // unknown command
-    else {
-      response = "Error: unrecognized command '" + tokens[0] + "'";
+      // unknown command
+      default:
+        response = "Error: unrecognized command '" + command.token(0) + "'";
+        break;
     }
 
     return response;
@@ -118,8 +206,31 @@ public class FlightService {
   public static void main(String[] args) throws IOException, SQLException {
     /* prepare the database connection stuff */
     Query q = new Query();
+    // print search and reservation responses from the session's buffer, without copying them
+    q.setResponseSink(System.out);
+    // commit bookings in groups, for front ends running many sessions in this JVM
+    BookingCoordinator coordinator = null;
+    if (Boolean.getBoolean("flightapp.groupCommit")) {
+      coordinator = BookingCoordinator.fromDbConn();
+      q.setBookingCoordinator(coordinator);
+    }
+    // follow other nodes' bookings and cancellations, for deployments with several app nodes
+    CapacityChangePoller poller = null;
+    if (Boolean.getBoolean("flightapp.capacityPolling")) {
+      poller = CapacityChangePoller.fromDbConn();
+      SeatAvailability.shared().connect(poller);
+    }
     menu(q);
     q.closeConnection();
+    if (coordinator != null) {
+      coordinator.close();
+    }
+    if (poller != null) {
+      poller.close();
+    }
+    if (StatementProfiler.shared() != null) {
+      System.out.print(StatementProfiler.shared().report(10));
+    }
   }
 
   /**
@@ -136,7 +247,9 @@ public class FlightService {
       System.out.println(" *** Please enter one of the following commands *** ");
       System.out.println("> create <username> <password> <initial amount>");
       System.out.println("> login <username> <password>");
-      System.out.println("> search <origin city> <destination city> <direct> <day of the month> <num itineraries>");
+      System.out.println("> search <origin city> <destination city> <direct> <day of the month> <num itineraries> [time|price|score|pareto] [available]");
+      System.out.println("> flexsearch <origin city> <destination city> <direct> <day of the month> <days before/after> <num itineraries>");
+      System.out.println("> route <origin city> <destination city> <max flights> <day of the month> <num itineraries>");
       System.out.println("> book <itinerary id>");
       System.out.println("> pay <reservation id>");
       System.out.println("> reservations");
@@ -156,20 +269,4 @@ public class FlightService {
       }
     }
   }
-
-  /**
-   * Tokenize a string into a string array
-   */
-  private static String[] tokenize(String command) {
-    String regex = "\"([^\"]*)\"|(\\S+)";
-    Matcher m = Pattern.compile(regex).matcher(command);
-    List<String> tokens = new ArrayList<>();
-    while (m.find()) {
-      if (m.group(1) != null)
-        tokens.add(m.group(1));
-      else
-        tokens.add(m.group(2));
-    }
-    return tokens.toArray(new String[0]);
-  }
 }
@@ -0,0 +1,266 @@
+package flightapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Columnar file snapshot of the non-canceled Flights rows, memory-mapped so that a new JVM can
+ * build its {@link FlightIndex} days without querying the database.
+ *
+ * Rows are sorted by day, then fid. The file holds a header, a table with the first row of every
+ * day, one int column per Flights column used by search, then a dictionary of every string value.
+ * String columns hold ids into the file's dictionary, which are translated to the
+ * {@link NameDictionary} ids of their column the first time a loaded row uses them. Columns stay
+ * in the mapped file, off the Java heap; only the dictionary and the rows of days actually
+ * searched are turned into objects.
+ *
+ * The snapshot is not kept up to date. Rewrite it whenever the Flights table changes.
+ */
+public class FlightSnapshot implements FlightIndex.Loader {
+  private static final int MAGIC = 0x464C5331; // "FLS1"
+  private static final int DAYS_IN_MONTH = 31;
+
+  // column order in the file
+  private static final int FID = 0;
+  private static final int CARRIER = 1;
+  private static final int NUMBER = 2;
+  private static final int ORIGIN = 3;
+  private static final int DEST = 4;
+  private static final int TIME = 5;
+  private static final int CAPACITY = 6;
+  private static final int PRICE = 7;
+  private static final int COLUMNS = 8;
+
+  // header: magic, rows, dictionary size, dictionary offset
+  private static final int HEADER_BYTES = 4 * Integer.BYTES;
+  // first row of days 1..31, plus the row count, at index day - 1
+  private static final int DAY_TABLE_BYTES = (DAYS_IN_MONTH + 1) * Integer.BYTES;
+
+  private static final String ALL_FLIGHTS =
+          "SELECT fid,day_of_month,carrier_id,flight_num,origin_city,dest_city,actual_time,capacity,price"
+                  + " FROM Flights"
+                  + " WHERE canceled = 0"
+                  + " ORDER BY day_of_month ASC, fid ASC";
+
+  // the snapshot named by -Dflightapp.snapshot, mapped on first use
+  private static final String CONFIGURED_PATH = System.getProperty("flightapp.snapshot");
+  private static FlightSnapshot configured;
+
+  private final MappedByteBuffer buffer;
+  private final int rows;
+  private final int[] dayStart = new int[DAYS_IN_MONTH + 1];
+  private static final int UNRESOLVED = -2;
+
+  // the file's dictionary
+  private final String[] names;
+  // NameDictionary id of each entry of the file's dictionary, per string column, or UNRESOLVED
+  private final int[] carrierIds;
+  private final int[] numberIds;
+  private final int[] cityIds;
+
+  private FlightSnapshot(MappedByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a flight snapshot");
+    }
+    rows = buffer.getInt(4);
+    names = new String[buffer.getInt(8)];
+    for (int day = 0; day <= DAYS_IN_MONTH; day++) {
+      dayStart[day] = buffer.getInt(HEADER_BYTES + day * Integer.BYTES);
+    }
+    ByteBuffer strings = buffer.duplicate();
+    strings.position(buffer.getInt(12));
+    for (int i = 0; i < names.length; i++) {
+      int length = strings.getInt();
+      if (length >= 0) {
+        byte[] bytes = new byte[length];
+        strings.get(bytes);
+        names[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+    }
+    carrierIds = unresolved(names.length);
+    numberIds = unresolved(names.length);
+    cityIds = unresolved(names.length);
+  }
+
+  private static int[] unresolved(int size) {
+    int[] ids = new int[size];
+    Arrays.fill(ids, UNRESOLVED);
+    return ids;
+  }
+
+  /**
+   * The id in {@code dictionary} of entry {@code i} of the file's dictionary. Concurrent loads may
+   * both resolve an entry, to the same id.
+   */
+  private int resolve(int[] ids, NameDictionary dictionary, int i) {
+    int id = ids[i];
+    if (id == UNRESOLVED) {
+      id = dictionary.id(names[i]);
+      ids[i] = id;
+    }
+    return id;
+  }
+
+  /**
+   * Maps a snapshot file written by {@link #write}.
+   */
+  public static FlightSnapshot open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // the mapping stays valid after the channel is closed
+      return new FlightSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * The snapshot named by the flightapp.snapshot property, or null if it is not set.
+   */
+  public static synchronized FlightSnapshot configured() throws IOException {
+    if (configured == null && CONFIGURED_PATH != null) {
+      configured = open(Paths.get(CONFIGURED_PATH));
+    }
+    return configured;
+  }
+
+  public int rows() {
+    return rows;
+  }
+
+  /**
+   * Reads the flights of a day, in fid order, as {@link Query}'s search would load them.
+   */
+  @Override
+  public List<Query.Flight> load(int dayOfMonth) {
+    if (dayOfMonth < 1 || dayOfMonth > DAYS_IN_MONTH) {
+      return new ArrayList<>();
+    }
+    int from = dayStart[dayOfMonth - 1];
+    int to = dayStart[dayOfMonth];
+    List<Query.Flight> flights = new ArrayList<>(to - from);
+    for (int row = from; row < to; row++) {
+      Query.Flight flight = new Query.Flight();
+      flight.fid = column(FID, row);
+      flight.dayOfMonth = dayOfMonth;
+      flight.carrier = resolve(carrierIds, NameDictionary.carriers(), column(CARRIER, row));
+      flight.number = resolve(numberIds, NameDictionary.flightNumbers(), column(NUMBER, row));
+      flight.origin = resolve(cityIds, NameDictionary.cities(), column(ORIGIN, row));
+      flight.dest = resolve(cityIds, NameDictionary.cities(), column(DEST, row));
+      flight.time = column(TIME, row);
+      flight.capacity = column(CAPACITY, row);
+      flight.price = column(PRICE, row);
+      flights.add(flight);
+    }
+    return flights;
+  }
+
+  private int column(int column, int row) {
+    return buffer.getInt(HEADER_BYTES + DAY_TABLE_BYTES + (column * rows + row) * Integer.BYTES);
+  }
+
+  /**
+   * Writes a snapshot of the non-canceled flights to {@code file}, replacing it.
+   */
+  public static void write(Connection conn, Path file) throws SQLException, IOException {
+    Map<String, Integer> ids = new HashMap<>();
+    List<String> dictionary = new ArrayList<>();
+    int[][] columns = new int[COLUMNS][1024];
+    int[] dayStart = new int[DAYS_IN_MONTH + 1];
+    int rows = 0;
+    try (PreparedStatement statement = conn.prepareStatement(ALL_FLIGHTS);
+         ResultSet rs = statement.executeQuery()) {
+      int day = 1;
+      while (rs.next()) {
+        int dayOfMonth = rs.getInt("day_of_month");
+        // days without flights start where the next day does
+        while (day <= dayOfMonth && day <= DAYS_IN_MONTH) {
+          dayStart[day - 1] = rows;
+          day++;
+        }
+        if (rows == columns[0].length) {
+          for (int c = 0; c < COLUMNS; c++) {
+            columns[c] = Arrays.copyOf(columns[c], rows * 2);
+          }
+        }
+        columns[FID][rows] = rs.getInt("fid");
+        columns[CARRIER][rows] = id(rs.getString("carrier_id"), ids, dictionary);
+        columns[NUMBER][rows] = id(rs.getString("flight_num"), ids, dictionary);
+        columns[ORIGIN][rows] = id(rs.getString("origin_city"), ids, dictionary);
+        columns[DEST][rows] = id(rs.getString("dest_city"), ids, dictionary);
+        columns[TIME][rows] = rs.getInt("actual_time");
+        columns[CAPACITY][rows] = rs.getInt("capacity");
+        columns[PRICE][rows] = rs.getInt("price");
+        rows++;
+      }
+      for (; day <= DAYS_IN_MONTH + 1; day++) {
+        dayStart[day - 1] = rows;
+      }
+    }
+
+    List<byte[]> encoded = new ArrayList<>(dictionary.size());
+    int dictionaryBytes = 0;
+    for (String value : dictionary) {
+      // NULL is written with length -1
+      byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+      encoded.add(bytes);
+      dictionaryBytes += Integer.BYTES + (bytes == null ? 0 : bytes.length);
+    }
+    int dictionaryOffset = HEADER_BYTES + DAY_TABLE_BYTES + COLUMNS * rows * Integer.BYTES;
+    ByteBuffer out = ByteBuffer.allocate(dictionaryOffset + dictionaryBytes);
+    out.putInt(MAGIC).putInt(rows).putInt(dictionary.size()).putInt(dictionaryOffset);
+    for (int start : dayStart) {
+      out.putInt(start);
+    }
+    for (int[] column : columns) {
+      out.asIntBuffer().put(column, 0, rows);
+      out.position(out.position() + rows * Integer.BYTES);
+    }
+    for (byte[] bytes : encoded) {
+      if (bytes == null) {
+        out.putInt(-1);
+      } else {
+        out.putInt(bytes.length).put(bytes);
+      }
+    }
+    out.flip();
+
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (out.hasRemaining()) {
+        channel.write(out);
+      }
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static int id(String value, Map<String, Integer> ids, List<String> dictionary) {
+    Integer id = ids.get(value);
+    if (id == null) {
+      id = dictionary.size();
+      ids.put(value, id);
+      dictionary.add(value);
+    }
+    return id;
+  }
+
+  /**
+   * Usage: write [file]
+   */
+  public static void main(String[] args) throws SQLException, IOException {
+    if (args.length >= 1 && args[0].equals("write")) {
+      Path file = Paths.get(args.length >= 2 ? args[1] : "flights.snapshot");
+      try (Connection conn = QueryAbstract.openConnectionFromDbConn()) {
+        write(conn, file);
+      }
+      System.out.println("Wrote " + open(file).rows() + " flights to " + file);
+    } else {
+      System.out.println("Usage: FlightSnapshot write [file]");
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package flightapp;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the FlightsVersion counter (see migrations/V5__flights_version.sql), which is bumped
+ * whenever Flights or Connections change, from any process.
+ *
+ * Searches call {@link #check} before using {@link SearchCache} or {@link FlightIndex}. At most
+ * once per -Dflightapp.flightsCheckMillis (default 1000) one of them reads the counter, and if it
+ * moved both caches are invalidated, so changes reach every node within about that interval.
+ * Without the V5 migration there is no counter to read, and the caches are never invalidated, as
+ * before the counter existed.
+ */
+public class FlightsVersion {
+  private static final long CHECK_MILLIS = Long.getLong("flightapp.flightsCheckMillis", 1000);
+  private static final FlightsVersion SHARED = new FlightsVersion(CHECK_MILLIS);
+
+  /**
+   * Reads the current counter from the database.
+   */
+  public interface Loader {
+    long version() throws SQLException;
+  }
+
+  private final long checkMillis;
+  private final AtomicLong nextCheckMillis = new AtomicLong();
+  // -1 until the first read
+  private volatile long version = -1;
+
+  public FlightsVersion(long checkMillis) {
+    this.checkMillis = checkMillis;
+  }
+
+  /**
+   * The tracker used by every Query in this JVM.
+   */
+  public static FlightsVersion shared() {
+    return SHARED;
+  }
+
+  /**
+   * Reads the counter if the last read is older than the check interval, and invalidates the
+   * caches if it changed since.
+   */
+  public void check(Loader loader) throws SQLException {
+    long now = System.currentTimeMillis();
+    long next = nextCheckMillis.get();
+    // only the session that moves the deadline reads the counter
+    if (now < next || !nextCheckMillis.compareAndSet(next, now + checkMillis)) {
+      return;
+    }
+    long current;
+    try {
+      current = loader.version();
+    } catch (SQLException e) {
+      nextCheckMillis.set(0);
+      throw e;
+    }
+    synchronized (this) {
+      if (version != -1 && current != version) {
+        SearchCache.shared().invalidateAll();
+        FlightIndex.invalidateAll();
+      }
+      version = current;
+    }
+  }
+}
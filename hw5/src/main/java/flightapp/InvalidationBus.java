@@ -0,0 +1,35 @@
+package flightapp;
+
+/**
+ * Carries capacity changes between the app nodes sharing a database, so that each node can keep
+ * its in-memory seat availability current.
+ *
+ * {@link CapacityChangePoller} reads the changes every node writes to the database;
+ * {@link LocalInvalidationBus} connects the caches of one JVM, for tests.
+ */
+public interface InvalidationBus extends AutoCloseable {
+  /**
+   * Receives the changes carried by a bus, in the order they were made.
+   */
+  interface Listener {
+    /**
+     * The flight now has {@code capacity} seats left.
+     */
+    void capacityChanged(int fid, int capacity);
+
+    /**
+     * Changes may have been missed, so everything cached must be read again.
+     */
+    void reset();
+  }
+
+  /**
+   * Announces a committed change made by this node.
+   */
+  void publish(int fid, int capacity);
+
+  void subscribe(Listener listener);
+
+  @Override
+  void close();
+}
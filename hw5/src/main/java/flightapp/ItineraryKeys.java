@@ -0,0 +1,131 @@
+package flightapp;
+
+import java.util.*;
+
+/**
+ * Packs itineraries of one or two flights into single longs that sort like search results.
+ *
+ * A key holds the total flight time in bits 42-62, the first fid in bits 21-41 and the second fid,
+ * or 0 for a direct flight, in bits 0-20. Comparing keys as longs compares by total time, then
+ * first fid, then second fid, and puts a direct flight before any itinerary continuing from it,
+ * just like {@link Route}. Ranking large candidate sets on keys needs no per-candidate objects.
+ */
+public class ItineraryKeys {
+  private static final int FID_BITS = 21;
+  private static final int TIME_BITS = 21;
+  private static final long FID_MASK = (1L << FID_BITS) - 1;
+
+  /**
+   * Largest fid and total time a key can hold.
+   */
+  public static final int MAX_FID = (int) FID_MASK;
+  public static final int MAX_TIME = (1 << TIME_BITS) - 1;
+
+  public static long key(int totalTime, int fid1, int fid2) {
+    return (long) totalTime << (2 * FID_BITS) | (long) fid1 << FID_BITS | fid2;
+  }
+
+  public static int totalTime(long key) {
+    return (int) (key >>> (2 * FID_BITS));
+  }
+
+  public static int fid1(long key) {
+    return (int) (key >>> FID_BITS & FID_MASK);
+  }
+
+  /**
+   * The second fid, or 0 for a direct flight.
+   */
+  public static int fid2(long key) {
+    return (int) (key & FID_MASK);
+  }
+
+  /**
+   * Whether every itinerary of at most two flights of the index can be packed.
+   */
+  public static boolean fits(FlightIndex index) {
+    return index.maxFid() <= MAX_FID && 2L * index.maxTime() <= MAX_TIME;
+  }
+
+  /**
+   * The {@code k} smallest of the first {@code size} keys, sorted.
+   */
+  public static long[] topK(long[] keys, int size, int k) {
+    if (size <= k) {
+      long[] sorted = Arrays.copyOf(keys, size);
+      Arrays.sort(sorted);
+      return sorted;
+    }
+    if (k <= 0) {
+      return new long[0];
+    }
+    // max-heap of the k smallest so far; heap[0] is the one to evict
+    long[] heap = Arrays.copyOf(keys, k);
+    for (int i = k / 2 - 1; i >= 0; i--) {
+      siftDown(heap, i, k);
+    }
+    for (int i = k; i < size; i++) {
+      if (keys[i] < heap[0]) {
+        heap[0] = keys[i];
+        siftDown(heap, 0, k);
+      }
+    }
+    Arrays.sort(heap);
+    return heap;
+  }
+
+  /**
+   * Merges two sorted key arrays, keeping the first {@code k}.
+   */
+  public static long[] merge(long[] left, long[] right, int k) {
+    long[] merged = new long[Math.min(k, left.length + right.length)];
+    int i = 0;
+    int j = 0;
+    for (int m = 0; m < merged.length; m++) {
+      merged[m] = j == right.length || (i < left.length && left[i] <= right[j]) ? left[i++] : right[j++];
+    }
+    return merged;
+  }
+
+  private static void siftDown(long[] heap, int i, int size) {
+    long key = heap[i];
+    while (2 * i + 1 < size) {
+      int child = 2 * i + 1;
+      if (child + 1 < size && heap[child + 1] > heap[child]) {
+        child++;
+      }
+      if (heap[child] <= key) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = key;
+  }
+
+  /**
+   * A growable array of keys.
+   */
+  public static final class Buffer {
+    private long[] keys = new long[16];
+    private int size;
+
+    public void add(long key) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+      }
+      keys[size++] = key;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    /**
+     * The backing array; only the first {@link #size()} keys are valid.
+     */
+    public long[] keys() {
+      return keys;
+    }
+  }
+}
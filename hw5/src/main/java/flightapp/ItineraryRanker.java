@@ -0,0 +1,298 @@
+package flightapp;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Orders candidate itineraries for search and keeps the best k of them.
+ *
+ * Every order falls back to the search order (total time, then fids), so rankings are
+ * deterministic. Top-k selection keeps a bounded heap of the k best candidates seen so far rather
+ * than sorting every candidate.
+ *
+ * For busy origins the first legs are split across a ForkJoinPool: each partition ranks its own
+ * candidates, and partitions are merged pairwise. Since every order is total, the merged result
+ * is exactly the sequential one.
+ *
+ * The time order ranks packed {@link ItineraryKeys} instead of routes, so only the k returned
+ * itineraries become objects.
+ */
+public class ItineraryRanker {
+  // weights of the SCORE order, in score points per minute, per dollar and per extra flight
+  private static final double TIME_WEIGHT = Double.parseDouble(System.getProperty("flightapp.weight.time", "1"));
+  private static final double PRICE_WEIGHT = Double.parseDouble(System.getProperty("flightapp.weight.price", "1"));
+  private static final double HOP_WEIGHT = Double.parseDouble(System.getProperty("flightapp.weight.hops", "60"));
+
+  // first legs per fork-join partition
+  private static final int PARTITION_SIZE = Integer.getInteger("flightapp.partitionSize", 64);
+
+  /**
+   * The ways search results can be ranked.
+   */
+  public enum Order {
+    /** shortest total flight time first */
+    TIME,
+    /** cheapest total price first */
+    PRICE,
+    /** lowest weighted sum of time, price and number of flights first */
+    SCORE,
+    /** only itineraries no other itinerary beats on time, price and flights, fastest first */
+    PARETO;
+
+    /**
+     * Parses an order name such as "price", or returns null if there is no such order.
+     */
+    public static Order parse(String name) {
+      for (Order order : values()) {
+        if (order.name().equalsIgnoreCase(name)) {
+          return order;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final Comparator<Route> BY_TIME = Comparator.naturalOrder();
+
+  private static final Comparator<Route> BY_PRICE =
+          Comparator.comparingInt(Route::getTotalPrice).thenComparing(BY_TIME);
+
+  private static final Comparator<Route> BY_SCORE =
+          Comparator.comparingDouble(ItineraryRanker::score).thenComparing(BY_TIME);
+
+  public static double score(Route route) {
+    return TIME_WEIGHT * route.getTotalTime() + PRICE_WEIGHT * route.getTotalPrice()
+            + HOP_WEIGHT * (route.size() - 1);
+  }
+
+  public static Comparator<Route> comparator(Order order) {
+    switch (order) {
+      case PRICE:
+        return BY_PRICE;
+      case SCORE:
+        return BY_SCORE;
+      default:
+        return BY_TIME;
+    }
+  }
+
+  /**
+   * Returns the best {@code k} candidates in the given order.
+   */
+  public static List<Route> rank(Collection<Route> candidates, Order order, int k) {
+    if (order == Order.PARETO) {
+      return topK(paretoFrontier(candidates), BY_TIME, k);
+    }
+    return topK(candidates, comparator(order), k);
+  }
+
+  /**
+   * Ranks the direct and, unless {@code directFlight}, one-stop itineraries the finder allows,
+   * evaluating the candidates of different first legs in parallel.
+   */
+  public static List<Route> rank(RouteFinder finder, String originCity, String destinationCity,
+                                 boolean directFlight, Order order, int k) {
+    NameDictionary names = NameDictionary.cities();
+    List<Query.Flight> firstLegs = finder.index().departures(names.lookup(originCity));
+    if (order == Order.TIME && ItineraryKeys.fits(finder.index())) {
+      KeyTask task = new KeyTask(finder, firstLegs, 0, firstLegs.size(),
+              names.lookup(destinationCity), directFlight, k);
+      long[] keys = firstLegs.size() > PARTITION_SIZE ? ForkJoinPool.commonPool().invoke(task)
+              : task.compute();
+      return toRoutes(finder.index(), keys);
+    }
+    RankTask task = new RankTask(finder, firstLegs, 0, firstLegs.size(),
+            names.lookup(destinationCity), directFlight, order, k);
+    List<Route> ranked = firstLegs.size() > PARTITION_SIZE ? ForkJoinPool.commonPool().invoke(task)
+            : task.compute();
+    return order == Order.PARETO ? topK(ranked, BY_TIME, k) : ranked;
+  }
+
+  private static List<Route> toRoutes(FlightIndex index, long[] keys) {
+    List<Route> routes = new ArrayList<>(keys.length);
+    for (long key : keys) {
+      Query.Flight flight1 = index.flight(ItineraryKeys.fid1(key));
+      int fid2 = ItineraryKeys.fid2(key);
+      routes.add(fid2 == 0 ? new Route(flight1) : new Route(flight1, index.flight(fid2)));
+    }
+    return routes;
+  }
+
+  /**
+   * The {@code k} smallest candidates under {@code comparator}, sorted.
+   */
+  public static List<Route> topK(Collection<Route> candidates, Comparator<Route> comparator, int k) {
+    if (k <= 0) {
+      return new ArrayList<>();
+    }
+    // max-heap of the k best so far; its head is the one to evict
+    PriorityQueue<Route> best = new PriorityQueue<>(Math.min(k, Math.max(candidates.size(), 1)) + 1,
+            comparator.reversed());
+    for (Route route : candidates) {
+      if (best.size() < k) {
+        best.add(route);
+      } else if (comparator.compare(route, best.peek()) < 0) {
+        best.poll();
+        best.add(route);
+      }
+    }
+    List<Route> result = new ArrayList<>(best);
+    result.sort(comparator);
+    return result;
+  }
+
+  /**
+   * Candidates not dominated by any other candidate. A candidate is dominated when another one is
+   * at least as good on time, price and number of flights, and better on at least one of them.
+   */
+  public static List<Route> paretoFrontier(Collection<Route> candidates) {
+    List<Route> sorted = new ArrayList<>(candidates);
+    sorted.sort(Comparator.comparingInt(Route::getTotalTime)
+            .thenComparingInt(Route::getTotalPrice)
+            .thenComparingInt(Route::size));
+    int maxFlights = 0;
+    for (Route route : sorted) {
+      maxFlights = Math.max(maxFlights, route.size());
+    }
+    // cheapest route seen so far with each number of flights; all of them are at most as slow
+    Route[] cheapest = new Route[maxFlights + 1];
+    List<Route> frontier = new ArrayList<>();
+    for (Route route : sorted) {
+      if (!dominated(route, cheapest)) {
+        frontier.add(route);
+      }
+      Route current = cheapest[route.size()];
+      if (current == null || route.getTotalPrice() < current.getTotalPrice()) {
+        cheapest[route.size()] = route;
+      }
+    }
+    return frontier;
+  }
+
+  /**
+   * Merges two lists sorted by {@code comparator}, keeping the first {@code k}.
+   */
+  private static List<Route> merge(List<Route> left, List<Route> right, Comparator<Route> comparator, int k) {
+    List<Route> merged = new ArrayList<>(Math.min(k, left.size() + right.size()));
+    int i = 0;
+    int j = 0;
+    while (merged.size() < k && (i < left.size() || j < right.size())) {
+      if (j == right.size() || (i < left.size() && comparator.compare(left.get(i), right.get(j)) <= 0)) {
+        merged.add(left.get(i++));
+      } else {
+        merged.add(right.get(j++));
+      }
+    }
+    return merged;
+  }
+
+  private static boolean dominated(Route route, Route[] cheapest) {
+    for (int flights = 1; flights <= route.size(); flights++) {
+      Route other = cheapest[flights];
+      if (other == null || other.getTotalPrice() > route.getTotalPrice()) {
+        continue;
+      }
+      if (other.getTotalPrice() < route.getTotalPrice() || other.getTotalTime() < route.getTotalTime()
+              || flights < route.size()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Ranks the candidates of the first legs in [from, to). Pareto partitions return their whole
+   * frontier, since the frontier of the union only depends on the partitions' frontiers.
+   */
+  private static final class RankTask extends RecursiveTask<List<Route>> {
+    private static final long serialVersionUID = 1L;
+
+    private final RouteFinder finder;
+    private final List<Query.Flight> firstLegs;
+    private final int from;
+    private final int to;
+    private final int destinationCity;
+    private final boolean directFlight;
+    private final Order order;
+    private final int k;
+
+    RankTask(RouteFinder finder, List<Query.Flight> firstLegs, int from, int to,
+             int destinationCity, boolean directFlight, Order order, int k) {
+      this.finder = finder;
+      this.firstLegs = firstLegs;
+      this.from = from;
+      this.to = to;
+      this.destinationCity = destinationCity;
+      this.directFlight = directFlight;
+      this.order = order;
+      this.k = k;
+    }
+
+    @Override
+    protected List<Route> compute() {
+      if (to - from <= PARTITION_SIZE) {
+        List<Route> candidates = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+          finder.addCandidates(firstLegs.get(i), destinationCity, directFlight, candidates);
+        }
+        return order == Order.PARETO ? paretoFrontier(candidates) : topK(candidates, comparator(order), k);
+      }
+      int middle = (from + to) >>> 1;
+      RankTask left = new RankTask(finder, firstLegs, from, middle, destinationCity, directFlight, order, k);
+      RankTask right = new RankTask(finder, firstLegs, middle, to, destinationCity, directFlight, order, k);
+      left.fork();
+      List<Route> rightRanked = right.compute();
+      List<Route> leftRanked = left.join();
+      if (order == Order.PARETO) {
+        List<Route> union = new ArrayList<>(leftRanked);
+        union.addAll(rightRanked);
+        return paretoFrontier(union);
+      }
+      return merge(leftRanked, rightRanked, comparator(order), k);
+    }
+  }
+
+  /**
+   * Like {@link RankTask} for the time order, on packed keys.
+   */
+  private static final class KeyTask extends RecursiveTask<long[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final RouteFinder finder;
+    private final List<Query.Flight> firstLegs;
+    private final int from;
+    private final int to;
+    private final int destinationCity;
+    private final boolean directFlight;
+    private final int k;
+
+    KeyTask(RouteFinder finder, List<Query.Flight> firstLegs, int from, int to,
+            int destinationCity, boolean directFlight, int k) {
+      this.finder = finder;
+      this.firstLegs = firstLegs;
+      this.from = from;
+      this.to = to;
+      this.destinationCity = destinationCity;
+      this.directFlight = directFlight;
+      this.k = k;
+    }
+
+    @Override
+    protected long[] compute() {
+      if (to - from <= PARTITION_SIZE) {
+        ItineraryKeys.Buffer keys = new ItineraryKeys.Buffer();
+        for (int i = from; i < to; i++) {
+          finder.addCandidateKeys(firstLegs.get(i), destinationCity, directFlight, keys);
+        }
+        return ItineraryKeys.topK(keys.keys(), keys.size(), k);
+      }
+      int middle = (from + to) >>> 1;
+      KeyTask left = new KeyTask(finder, firstLegs, from, middle, destinationCity, directFlight, k);
+      KeyTask right = new KeyTask(finder, firstLegs, middle, to, destinationCity, directFlight, k);
+      left.fork();
+      long[] rightRanked = right.compute();
+      long[] leftRanked = left.join();
+      return ItineraryKeys.merge(leftRanked, rightRanked, k);
+    }
+  }
+}
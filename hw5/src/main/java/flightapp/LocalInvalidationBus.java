@@ -0,0 +1,39 @@
+package flightapp;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * In-process {@link InvalidationBus}: every published change is delivered to every listener,
+ * including the publisher's, before publish returns. Stands in for the database poller in tests
+ * that run several caches in one JVM.
+ */
+public class LocalInvalidationBus implements InvalidationBus {
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  @Override
+  public void publish(int fid, int capacity) {
+    for (Listener listener : listeners) {
+      listener.capacityChanged(fid, capacity);
+    }
+  }
+
+  @Override
+  public void subscribe(Listener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Tells every listener that changes may have been missed.
+   */
+  public void reset() {
+    for (Listener listener : listeners) {
+      listener.reset();
+    }
+  }
+
+  @Override
+  public void close() {
+    listeners.clear();
+  }
+}
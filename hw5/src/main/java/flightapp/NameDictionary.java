@@ -0,0 +1,108 @@
+package flightapp;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Maps the city, carrier or flight number strings of flights to dense int ids.
+ *
+ * Flights keep ids instead of strings, so indexes, joins and cache keys compare ints and can use
+ * arrays indexed by city. Names are decoded only when a flight is rendered. Each column has its
+ * own dictionary, so city ids stay dense however many carriers and flight numbers there are. Ids
+ * are shared by every Query in the JVM and never reused.
+ *
+ * The city dictionary ignores case, like the database's comparisons of city names; cities that
+ * differ only in case share the id and the spelling of the first one seen.
+ */
+public class NameDictionary {
+  private static final NameDictionary CITIES = new NameDictionary(true);
+  private static final NameDictionary CARRIERS = new NameDictionary(false);
+  private static final NameDictionary FLIGHT_NUMBERS = new NameDictionary(false);
+
+  /**
+   * Id of a NULL name.
+   */
+  public static final int NULL_ID = -1;
+
+  private final boolean ignoreCase;
+  // keyed by the names, lower-cased if ignoreCase
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+  private volatile String[] names = new String[256];
+  private int size;
+
+  public NameDictionary(boolean ignoreCase) {
+    this.ignoreCase = ignoreCase;
+  }
+
+  /**
+   * The origin and destination cities, shared by every Query in this JVM.
+   */
+  public static NameDictionary cities() {
+    return CITIES;
+  }
+
+  /**
+   * The carrier ids, shared by every Query in this JVM.
+   */
+  public static NameDictionary carriers() {
+    return CARRIERS;
+  }
+
+  /**
+   * The flight numbers, shared by every Query in this JVM.
+   */
+  public static NameDictionary flightNumbers() {
+    return FLIGHT_NUMBERS;
+  }
+
+  /**
+   * Returns the id of a name, assigning the next id to names not seen before.
+   */
+  public int id(String name) {
+    if (name == null) {
+      return NULL_ID;
+    }
+    Integer id = ids.get(key(name));
+    return id != null ? id : add(name);
+  }
+
+  /**
+   * Returns the id of a name, or {@link #NULL_ID} if no flight has used it.
+   */
+  public int lookup(String name) {
+    Integer id = name == null ? null : ids.get(key(name));
+    return id != null ? id : NULL_ID;
+  }
+
+  public String name(int id) {
+    return id == NULL_ID ? null : names[id];
+  }
+
+  /**
+   * Upper bound of the ids given out so far, for arrays indexed by id.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  private String key(String name) {
+    return ignoreCase ? name.toLowerCase(Locale.ROOT) : name;
+  }
+
+  private synchronized int add(String name) {
+    String key = key(name);
+    Integer id = ids.get(key);
+    if (id != null) {
+      return id;
+    }
+    if (size == names.length) {
+      names = Arrays.copyOf(names, size * 2);
+    }
+    // publish the name before the id, so name(id) never sees a missing entry
+    String[] current = names;
+    current[size] = name;
+    names = current;
+    ids.put(key, size);
+    return size++;
+  }
+}
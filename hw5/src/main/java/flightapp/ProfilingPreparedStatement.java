@@ -0,0 +1,431 @@
+package flightapp;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * PreparedStatement decorator that reports each execution to a {@link StatementProfiler}: its
+ * time, the rows read from its result set and, for slow executions, its bound parameters.
+ *
+ * It mirrors the test-only TestPreparedStatementWrapper. Calls it shares with plain statements are
+ * handled by {@link ProfilingStatement}; every other call is delegated as is.
+ */
+public class ProfilingPreparedStatement extends ProfilingStatement implements PreparedStatement {
+  private final PreparedStatement p;
+  private final String sql;
+  private final StatementProfiler profiler;
+  // bound parameters by index, kept for the slow-statement log
+  private Object[] parameters;
+
+  public ProfilingPreparedStatement(PreparedStatement p, String sql, StatementProfiler profiler) {
+    super(p, sql, profiler);
+    this.p = p;
+    this.sql = sql;
+    this.profiler = profiler;
+    int markers = 0;
+    for (int i = 0; i < sql.length(); i++) {
+      if (sql.charAt(i) == '?') {
+        markers++;
+      }
+    }
+    parameters = new Object[markers + 1];
+  }
+
+  private void bind(int parameterIndex, Object value) {
+    if (parameterIndex >= parameters.length) {
+      parameters = Arrays.copyOf(parameters, Math.max(parameterIndex + 1, parameters.length * 2));
+    }
+    parameters[parameterIndex] = value;
+  }
+
+  private void executed(long start) {
+    profiler.record(sql, System.nanoTime() - start, parameters);
+  }
+
+  @Override
+  public ResultSet executeQuery() throws SQLException {
+    long start = System.nanoTime();
+    try {
+      return profiler.countRows(p.executeQuery(), sql);
+    } finally {
+      executed(start);
+    }
+  }
+
+  @Override
+  public int executeUpdate() throws SQLException {
+    long start = System.nanoTime();
+    try {
+      return p.executeUpdate();
+    } finally {
+      executed(start);
+    }
+  }
+
+  @Override
+  public void setNull(int parameterIndex, int sqlType) throws SQLException {
+    p.setNull(parameterIndex, sqlType);
+    bind(parameterIndex, null);
+  }
+
+  @Override
+  public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+    p.setBoolean(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setByte(int parameterIndex, byte x) throws SQLException {
+    p.setByte(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setShort(int parameterIndex, short x) throws SQLException {
+    p.setShort(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setInt(int parameterIndex, int x) throws SQLException {
+    p.setInt(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setLong(int parameterIndex, long x) throws SQLException {
+    p.setLong(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setFloat(int parameterIndex, float x) throws SQLException {
+    p.setFloat(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setDouble(int parameterIndex, double x) throws SQLException {
+    p.setDouble(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+    p.setBigDecimal(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setString(int parameterIndex, String x) throws SQLException {
+    p.setString(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+    p.setBytes(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setDate(int parameterIndex, Date x) throws SQLException {
+    p.setDate(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setTime(int parameterIndex, Time x) throws SQLException {
+    p.setTime(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+    p.setTimestamp(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    p.setAsciiStream(parameterIndex, x, length);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  @Deprecated(since = "1.2")
+  public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    p.setUnicodeStream(parameterIndex, x, length);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    p.setBinaryStream(parameterIndex, x, length);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void clearParameters() throws SQLException {
+    p.clearParameters();
+    Arrays.fill(parameters, null);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+    p.setObject(parameterIndex, x, targetSqlType);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x) throws SQLException {
+    p.setObject(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public boolean execute() throws SQLException {
+    long start = System.nanoTime();
+    try {
+      return p.execute();
+    } finally {
+      executed(start);
+    }
+  }
+
+  @Override
+  public void addBatch() throws SQLException {
+    p.addBatch();
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+    p.setCharacterStream(parameterIndex, reader, length);
+    bind(parameterIndex, reader);
+  }
+
+  @Override
+  public void setRef(int parameterIndex, Ref x) throws SQLException {
+    p.setRef(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, Blob x) throws SQLException {
+    p.setBlob(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Clob x) throws SQLException {
+    p.setClob(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setArray(int parameterIndex, Array x) throws SQLException {
+    p.setArray(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData() throws SQLException {
+    return p.getMetaData();
+  }
+
+  @Override
+  public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+    p.setDate(parameterIndex, x, cal);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+    p.setTime(parameterIndex, x, cal);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+    p.setTimestamp(parameterIndex, x, cal);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+    p.setNull(parameterIndex, sqlType, typeName);
+    bind(parameterIndex, null);
+  }
+
+  @Override
+  public void setURL(int parameterIndex, URL x) throws SQLException {
+    p.setURL(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public ParameterMetaData getParameterMetaData() throws SQLException {
+    return p.getParameterMetaData();
+  }
+
+  @Override
+  public void setRowId(int parameterIndex, RowId x) throws SQLException {
+    p.setRowId(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setNString(int parameterIndex, String value) throws SQLException {
+    p.setNString(parameterIndex, value);
+    bind(parameterIndex, value);
+  }
+
+  @Override
+  public void setNCharacterStream(int parameterIndex, Reader value, long length) throws SQLException {
+    p.setNCharacterStream(parameterIndex, value, length);
+    bind(parameterIndex, value);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, NClob value) throws SQLException {
+    p.setNClob(parameterIndex, value);
+    bind(parameterIndex, value);
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+    p.setClob(parameterIndex, reader, length);
+    bind(parameterIndex, reader);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+    p.setBlob(parameterIndex, inputStream, length);
+    bind(parameterIndex, inputStream);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+    p.setNClob(parameterIndex, reader, length);
+    bind(parameterIndex, reader);
+  }
+
+  @Override
+  public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+    p.setSQLXML(parameterIndex, xmlObject);
+    bind(parameterIndex, xmlObject);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+    p.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+    p.setAsciiStream(parameterIndex, x, length);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+    p.setBinaryStream(parameterIndex, x, length);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+    p.setCharacterStream(parameterIndex, reader, length);
+    bind(parameterIndex, reader);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+    p.setAsciiStream(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+    p.setBinaryStream(parameterIndex, x);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+    p.setCharacterStream(parameterIndex, reader);
+    bind(parameterIndex, reader);
+  }
+
+  @Override
+  public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+    p.setNCharacterStream(parameterIndex, value);
+    bind(parameterIndex, value);
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Reader reader) throws SQLException {
+    p.setClob(parameterIndex, reader);
+    bind(parameterIndex, reader);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+    p.setBlob(parameterIndex, inputStream);
+    bind(parameterIndex, inputStream);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+    p.setNClob(parameterIndex, reader);
+    bind(parameterIndex, reader);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+    p.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, SQLType targetSqlType) throws SQLException {
+    p.setObject(parameterIndex, x, targetSqlType);
+    bind(parameterIndex, x);
+  }
+
+  @Override
+  public long executeLargeUpdate() throws SQLException {
+    long start = System.nanoTime();
+    try {
+      return p.executeLargeUpdate();
+    } finally {
+      executed(start);
+    }
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    long start = System.nanoTime();
+    try {
+      return p.executeBatch();
+    } finally {
+      executed(start);
+    }
+  }
+
+  @Override
+  public long[] executeLargeBatch() throws SQLException {
+    long start = System.nanoTime();
+    try {
+      return p.executeLargeBatch();
+    } finally {
+      executed(start);
+    }
+  }
+}
@@ -0,0 +1,414 @@
+package flightapp;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statement decorator that reports each execution to a {@link StatementProfiler}: its time and
+ * the rows read from its result sets. Plain statements have no bound parameters, so the SQL text
+ * is the key; a batch is recorded under its statements joined by "; ".
+ *
+ * {@link ProfilingPreparedStatement} extends it for the calls the interfaces share; every other
+ * call is delegated as is.
+ */
+public class ProfilingStatement implements Statement {
+  // describe() skips index 0, so this logs as []
+  private static final Object[] NO_PARAMETERS = new Object[1];
+
+  private final Statement s;
+  private final StatementProfiler profiler;
+  // SQL of the last execution, charged with the rows of getResultSet()
+  private String sql;
+  // SQL added with addBatch(String) since the last executeBatch()
+  private final List<String> batch = new ArrayList<>();
+
+  public ProfilingStatement(Statement s, StatementProfiler profiler) {
+    this(s, null, profiler);
+  }
+
+  ProfilingStatement(Statement s, String sql, StatementProfiler profiler) {
+    this.s = s;
+    this.sql = sql;
+    this.profiler = profiler;
+  }
+
+  private void executed(String sql, long start) {
+    profiler.record(sql, System.nanoTime() - start, NO_PARAMETERS);
+  }
+
+  @Override
+  public ResultSet executeQuery(String sql) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return profiler.countRows(s.executeQuery(sql), sql);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public int executeUpdate(String sql) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.executeUpdate(sql);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public void close() throws SQLException {
+    s.close();
+  }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException {
+    return s.getMaxFieldSize();
+  }
+
+  @Override
+  public void setMaxFieldSize(int max) throws SQLException {
+    s.setMaxFieldSize(max);
+  }
+
+  @Override
+  public int getMaxRows() throws SQLException {
+    return s.getMaxRows();
+  }
+
+  @Override
+  public void setMaxRows(int max) throws SQLException {
+    s.setMaxRows(max);
+  }
+
+  @Override
+  public void setEscapeProcessing(boolean enable) throws SQLException {
+    s.setEscapeProcessing(enable);
+  }
+
+  @Override
+  public int getQueryTimeout() throws SQLException {
+    return s.getQueryTimeout();
+  }
+
+  @Override
+  public void setQueryTimeout(int seconds) throws SQLException {
+    s.setQueryTimeout(seconds);
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    s.cancel();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return s.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    s.clearWarnings();
+  }
+
+  @Override
+  public void setCursorName(String name) throws SQLException {
+    s.setCursorName(name);
+  }
+
+  @Override
+  public boolean execute(String sql) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.execute(sql);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    ResultSet rs = s.getResultSet();
+    return rs == null || sql == null ? rs : profiler.countRows(rs, sql);
+  }
+
+  @Override
+  public int getUpdateCount() throws SQLException {
+    return s.getUpdateCount();
+  }
+
+  @Override
+  public boolean getMoreResults() throws SQLException {
+    return s.getMoreResults();
+  }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException {
+    s.setFetchDirection(direction);
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    return s.getFetchDirection();
+  }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException {
+    s.setFetchSize(rows);
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    return s.getFetchSize();
+  }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException {
+    return s.getResultSetConcurrency();
+  }
+
+  @Override
+  public int getResultSetType() throws SQLException {
+    return s.getResultSetType();
+  }
+
+  @Override
+  public void addBatch(String sql) throws SQLException {
+    s.addBatch(sql);
+    batch.add(sql);
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    s.clearBatch();
+    batch.clear();
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    String sql = String.join("; ", batch);
+    batch.clear();
+    long start = System.nanoTime();
+    try {
+      return s.executeBatch();
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public long[] executeLargeBatch() throws SQLException {
+    String sql = String.join("; ", batch);
+    batch.clear();
+    long start = System.nanoTime();
+    try {
+      return s.executeLargeBatch();
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return s.getConnection();
+  }
+
+  @Override
+  public boolean getMoreResults(int current) throws SQLException {
+    return s.getMoreResults(current);
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    return s.getGeneratedKeys();
+  }
+
+  @Override
+  public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.executeUpdate(sql, autoGeneratedKeys);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.executeUpdate(sql, columnIndexes);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.executeUpdate(sql, columnNames);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.execute(sql, autoGeneratedKeys);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.execute(sql, columnIndexes);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public boolean execute(String sql, String[] columnNames) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.execute(sql, columnNames);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException {
+    return s.getResultSetHoldability();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return s.isClosed();
+  }
+
+  @Override
+  public void setPoolable(boolean poolable) throws SQLException {
+    s.setPoolable(poolable);
+  }
+
+  @Override
+  public boolean isPoolable() throws SQLException {
+    return s.isPoolable();
+  }
+
+  @Override
+  public void closeOnCompletion() throws SQLException {
+    s.closeOnCompletion();
+  }
+
+  @Override
+  public boolean isCloseOnCompletion() throws SQLException {
+    return s.isCloseOnCompletion();
+  }
+
+  @Override
+  public long getLargeUpdateCount() throws SQLException {
+    return s.getLargeUpdateCount();
+  }
+
+  @Override
+  public void setLargeMaxRows(long max) throws SQLException {
+    s.setLargeMaxRows(max);
+  }
+
+  @Override
+  public long getLargeMaxRows() throws SQLException {
+    return s.getLargeMaxRows();
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.executeLargeUpdate(sql);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.executeLargeUpdate(sql, autoGeneratedKeys);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.executeLargeUpdate(sql, columnIndexes);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+    this.sql = sql;
+    long start = System.nanoTime();
+    try {
+      return s.executeLargeUpdate(sql, columnNames);
+    } finally {
+      executed(sql, start);
+    }
+  }
+
+  @Override
+  public String enquoteLiteral(String val) throws SQLException {
+    return s.enquoteLiteral(val);
+  }
+
+  @Override
+  public String enquoteIdentifier(String identifier, boolean alwaysQuote) throws SQLException {
+    return s.enquoteIdentifier(identifier, alwaysQuote);
+  }
+
+  @Override
+  public boolean isSimpleIdentifier(String identifier) throws SQLException {
+    return s.isSimpleIdentifier(identifier);
+  }
+
+  @Override
+  public String enquoteNCharLiteral(String val) throws SQLException {
+    return s.enquoteNCharLiteral(val);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return s.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return s.isWrapperFor(iface);
+  }
+}
@@ -10,6 +10,10 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * Runs queries against a back-end database
@@ -26,6 +30,22 @@ public class Query extends QueryAbstract {
   private static final String UPDATE_FLIGHT_CAPACITY = "UPDATE Capacity SET capacity = ? WHERE fid = ?";
   private PreparedStatement updateFlightCapacityStatement;
 
+  // give a canceled reservation's seat back
+  // no OUTPUT clause: Capacity has a change-log trigger, see migrations/V4__capacity_changes.sql
+  private static final String RELEASE_FLIGHT_CAPACITY = "UPDATE Capacity SET capacity = capacity + 1 WHERE fid = ?";
+  private PreparedStatement releaseFlightCapacityStatement;
+
+  // flights of a day without seats left, for the SeatAvailability bitmap
+  private static final String SOLD_OUT_BY_DAY = "SELECT C.fid FROM Capacity AS C JOIN Flights AS F " +
+          "ON C.fid = F.fid WHERE F.day_of_month = ? AND C.capacity <= 0";
+  private PreparedStatement soldOutByDayStatement;
+
+  // change counter of Flights, for dropping cached searches, see FlightsVersion. Databases set up
+  // with createTables.sql alone have no counter; it then reads as a constant and nothing is dropped
+  private static final String SELECT_FLIGHTS_VERSION = "IF OBJECT_ID('FlightsVersion') IS NULL " +
+          "SELECT CAST(0 AS BIGINT) ELSE SELECT Version FROM FlightsVersion";
+  private PreparedStatement flightsVersionStatement;
+
   // clear the table
   private static final String CLEAR_USER_TABLE = "DELETE FROM Users";
   private PreparedStatement clearUserTableStatement;
@@ -54,9 +74,16 @@ public class Query extends QueryAbstract {
   private PreparedStatement insertUserStatement;
 
   // insert into itinerary rows
-  private static final String INSERT_ITINERARY = "INSERT INTO Itineraries (ItineraryID,fid1,fid2) VALUES (?,?,?)";
+  private static final String INSERT_ITINERARY = "INSERT INTO Itineraries (ItineraryID,fid1,fid2,Price) VALUES (?,?,?,?)";
   private PreparedStatement insertItineraryStatement;
 
+  // Every flight SELECT lists fid, day_of_month, carrier_id, flight_num, origin_city, dest_city,
+  // actual_time, capacity and price in this order, and setFlight reads them by position.
+  private static final int FLIGHT_COLUMNS = 9;
+
+  // rows per round trip for the statements that can return many rows; 0 keeps the driver default
+  private static final int FETCH_SIZE = Integer.getInteger("flightapp.fetchSize", 0);
+
   // direct flight search select statement
   private static final String DIRECT_FLIGHT_SEARCH =
           "SELECT TOP (?) fid,day_of_month,carrier_id,flight_num,origin_city,dest_city,actual_time,capacity,price"
@@ -87,12 +114,43 @@ public class Query extends QueryAbstract {
           "ORDER BY f1.actual_time + f2.actual_time, f1.fid, f2.fid ASC";
   private PreparedStatement indirectStatement;
 
+  // indirect search over the precomputed Connections table, see ConnectionsBuilder
+  private static final boolean USE_CONNECTIONS = Boolean.getBoolean("flightapp.connections");
+  private static final String CONNECTION_FLIGHT_SEARCH = "SELECT TOP (?) " +
+          "f1.fid AS f1_fid, f1.day_of_month AS f1_day_of_month, f1.carrier_id AS f1_carrier_id, " +
+          "f1.flight_num AS f1_flight_num, f1.origin_city AS f1_origin_city, " +
+          "f1.dest_city AS f1_dest_city, f1.actual_time AS f1_actual_time, f1.capacity AS f1_capacity, " +
+          "f1.price AS f1_price, " +
+          "f2.fid AS f2_fid, f2.day_of_month AS f2_day_of_month, f2.carrier_id AS f2_carrier_id, " +
+          "f2.flight_num AS f2_flight_num, f2.origin_city AS f2_origin_city, " +
+          "f2.dest_city AS f2_dest_city, f2.actual_time AS f2_actual_time, f2.capacity AS f2_capacity, " +
+          "f2.price AS f2_price " +
+          "FROM Connections AS c " +
+          "JOIN Flights AS f1 ON c.fid1 = f1.fid " +
+          "JOIN Flights AS f2 ON c.fid2 = f2.fid " +
+          "WHERE c.day_of_month = ? AND c.origin_city = ? AND c.dest_city = ? " +
+          "ORDER BY c.total_time, c.fid1, c.fid2 ASC";
+  private PreparedStatement connectionStatement;
+
+  // every flight of a day, for the in-memory FlightIndex
+  private static final String FLIGHTS_BY_DAY =
+          "SELECT fid,day_of_month,carrier_id,flight_num,origin_city,dest_city,actual_time,capacity,price"
+                  + " FROM Flights"
+                  + " WHERE day_of_month = ? AND canceled = 0"
+                  + " ORDER BY fid ASC";
+  private PreparedStatement flightsByDayStatement;
+
+  // upper bound on the flights per itinerary of the multi-hop search
+  private static final int MAX_HOPS = Integer.getInteger("flightapp.maxHops", 4);
+
   // search itinerary with itinerary ID
   private static final String SEARCH_ITINERARY = "SELECT * FROM Itineraries WHERE ItineraryID = ?";
   private PreparedStatement searchItineraryStatement;
 
   // search flight with FID
-  private static final String SEARCH_FID = "SELECT * FROM FLIGHTS WHERE fid = ?";
+  private static final String SEARCH_FID = "SELECT " +
+          "fid,day_of_month,carrier_id,flight_num,origin_city,dest_city,actual_time,capacity,price " +
+          "FROM FLIGHTS WHERE fid = ?";
   private PreparedStatement searchFIDStatement;
 
   // search current date with reservation
@@ -101,29 +159,54 @@ public class Query extends QueryAbstract {
           "Itineraries AS I, FLIGHTS AS F WHERE R.ItineraryID = I.ItineraryID AND I.fid1 = F.fid";
   private PreparedStatement searchReservationStatement;
 
-  // the current reservation id
-  private static final String SEARCH_RESERVE_COUNT =  "SELECT COUNT(*) AS count FROM Reservations WHERE UserName = ?";
-  private PreparedStatement reservationCountStatement;
-
-  // insert reservation id
-  private static final String INSERT_RESERVATION = "INSERT INTO Reservations VALUES (?,?,?,?,?)";
+  // insert a reservation under the next global id, which is returned; the locks keep concurrent
+  // bookings, also those of the BookingCoordinator and BookItinerary, from taking the same id.
+  // Carries the itinerary's fids and total price so pay/cancel need no lookups
+  private static final String INSERT_RESERVATION = "INSERT INTO Reservations " +
+          "(ReservationID,IsPaid,IsCancelled,ItineraryID,UserName,fid1,fid2,Price) " +
+          "OUTPUT inserted.ReservationID " +
+          "SELECT ISNULL(MAX(ReservationID), 0) + 1, ?, ?, ?, ?, ?, ?, ? " +
+          "FROM Reservations WITH (UPDLOCK, HOLDLOCK)";
   private PreparedStatement insertReservationStatement;
 
   private static final String SELECT_RESERVATION = "SELECT * FROM Reservations WHERE ReservationID = ?" +
           " AND IsCancelled = 0";
   private PreparedStatement selectReservationStatement;
 
-  private static final String SELECT_RESERVATION_WITH_USER_NAME = "SELECT * FROM Reservations WHERE UserName = ? " +
-          "AND IsCancelled = 0";
+  private static final String SELECT_RESERVATION_WITH_USER_NAME = "SELECT ReservationID, IsPaid, fid1, fid2 " +
+          "FROM Reservations WHERE UserName = ? AND IsCancelled = 0";
   private PreparedStatement selectReservationWithUserNameStatement;
 
   private static final String UPDATE_RESERVATION_CANCEL = "UPDATE Reservations SET IsCancelled = 1 " +
           "WHERE reservationID = ?";
   private PreparedStatement updateCancelReservationStatement;
 
-  // user logged in status
-  private static boolean isLogin;
-  private static String loginUserName;
+  // book, pay and cancel as single stored procedure calls, see migrations/V3__booking_procedures.sql
+  private static final boolean USE_PROCEDURES = Boolean.getBoolean("flightapp.procedures");
+  private static final String BOOK_PROCEDURE = "{call BookItinerary(?, ?, ?, ?, ?, ?, ?, ?)}";
+  private CallableStatement bookProcedure;
+
+  private static final String PAY_PROCEDURE = "{call PayReservation(?, ?, ?, ?, ?)}";
+  private CallableStatement payProcedure;
+
+  private static final String CANCEL_PROCEDURE = "{call CancelReservation(?, ?, ?, ?, ?, ?, ?)}";
+  private CallableStatement cancelProcedure;
+
+  // ids of sessions, e.g. for rate limiting before login
+  private static final AtomicLong NEXT_SESSION_ID = new AtomicLong();
+
+  // user logged in status, per session
+  private boolean isLogin;
+  private String loginUserName;
+  private long sessionId = newSessionId();
+
+  // per-session output buffer reused by search and reservations
+  private final StringBuilder out = new StringBuilder();
+  // when set, complete responses are written here instead of being returned
+  private Appendable responseSink;
+  // when set, bookings are committed in groups with other sessions' bookings
+  private BookingCoordinator bookingCoordinator;
+
   public Query(Connection conn) throws SQLException {
     super(conn);
     prepareStatements();
@@ -141,6 +224,16 @@ public class Query extends QueryAbstract {
     this(openConnectionFromCredential(serverURL, dbName, adminName, password));
   }
 
+  /**
+   * Writes each search and reservations response to {@code sink} from the reusable buffer, in one
+   * piece once it has been rendered completely, so a failure part way through only prints the
+   * error message. The methods then return an empty string on success. Pass null
+   * to return whole responses.
+   */
+  public void setResponseSink(Appendable sink) {
+    this.responseSink = sink;
+  }
+
   /**
    * Clear the data in any custom tables created.
    * <p>
@@ -161,6 +254,9 @@ public class Query extends QueryAbstract {
   private void prepareStatements() throws SQLException {
     checkFlightCapacityStatement = conn.prepareStatement(CHECK_FLIGHT_CAPACITY);
     updateFlightCapacityStatement = conn.prepareStatement(UPDATE_FLIGHT_CAPACITY);
+    releaseFlightCapacityStatement = conn.prepareStatement(RELEASE_FLIGHT_CAPACITY);
+    soldOutByDayStatement = conn.prepareStatement(SOLD_OUT_BY_DAY);
+    flightsVersionStatement = conn.prepareStatement(SELECT_FLIGHTS_VERSION);
     clearUserTableStatement = conn.prepareStatement(CLEAR_USER_TABLE);
     clearItineraryStatement = conn.prepareStatement(CLEAR_ITINERARIES_TABLE);
     clearReservationStatement = conn.prepareStatement(CLEAR_RESERVATION_TABLE);
@@ -168,17 +264,34 @@ public class Query extends QueryAbstract {
     insertUserStatement = conn.prepareStatement(INSERT_USER);
     directStatement = conn.prepareStatement(DIRECT_FLIGHT_SEARCH);
     indirectStatement = conn.prepareStatement(INDIRECT_FLIGHT_SEARCH);
+    if (USE_CONNECTIONS) {
+      connectionStatement = conn.prepareStatement(CONNECTION_FLIGHT_SEARCH);
+    }
     insertItineraryStatement = conn.prepareStatement(INSERT_ITINERARY);
+    flightsByDayStatement = conn.prepareStatement(FLIGHTS_BY_DAY);
     searchItineraryStatement = conn.prepareStatement(SEARCH_ITINERARY);
     searchFIDStatement = conn.prepareStatement(SEARCH_FID);
     searchReservationStatement = conn.prepareStatement(SEARCH_RESERVATION);
-    reservationCountStatement = conn.prepareStatement(SEARCH_RESERVE_COUNT);
     insertReservationStatement = conn.prepareStatement(INSERT_RESERVATION);
     selectReservationStatement = conn.prepareStatement(SELECT_RESERVATION);
     updateBalanceStatement = conn.prepareStatement(UPDATE_BALANCE);
     updateReservationStatement = conn.prepareStatement(UPDATE_RESERVATION);
     selectReservationWithUserNameStatement = conn.prepareStatement(SELECT_RESERVATION_WITH_USER_NAME);
     updateCancelReservationStatement = conn.prepareStatement(UPDATE_RESERVATION_CANCEL);
+    if (FETCH_SIZE > 0) {
+      directStatement.setFetchSize(FETCH_SIZE);
+      indirectStatement.setFetchSize(FETCH_SIZE);
+      if (connectionStatement != null) {
+        connectionStatement.setFetchSize(FETCH_SIZE);
+      }
+      flightsByDayStatement.setFetchSize(FETCH_SIZE);
+      selectReservationWithUserNameStatement.setFetchSize(FETCH_SIZE);
+    }
+    if (USE_PROCEDURES) {
+      bookProcedure = conn.prepareCall(BOOK_PROCEDURE);
+      payProcedure = conn.prepareCall(PAY_PROCEDURE);
+      cancelProcedure = conn.prepareCall(CANCEL_PROCEDURE);
+    }
   }
 
   /**
@@ -222,7 +335,7 @@ public class Query extends QueryAbstract {
     return "Logged in as " + username + "\n";
   }
 
-  private byte[] getPassHash(String password, byte[] salt) {
+  static byte[] getPassHash(String password, byte[] salt) {
     KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH,
             KEY_LENGTH);
     // Generate the hash
@@ -314,94 +427,295 @@ public class Query extends QueryAbstract {
    */
   public String transaction_search(String originCity, String destinationCity, boolean directFlight,
                                    int dayOfMonth, int numberOfItineraries) {
-    // WARNING the below code is unsafe and only handles searches for direct flights
-    // You can use the below code as a starting reference point or you can get rid
-    // of it all and replace it with your own implementation.
-    //
-    // It will not pass test because it try to create a statement, but you
-    // can still run FlightService
-    //
+    return search(originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries, null);
+  }
+
+  /**
+   * Runs the search command, over the flights accepted by {@code usable}, or all flights if it is
+   * null.
+   */
+  private String search(String originCity, String destinationCity, boolean directFlight,
+                        int dayOfMonth, int numberOfItineraries, Predicate<Flight> usable) {
     try {
-      // WARNING the below code is unsafe and only handles searches for direct flights
-      // You can use the below code as a starting reference point or you can get rid
-      // of it all and replace it with your own implementation.
-      //
       clearItineraryStatement.executeUpdate();
-      StringBuffer sb = new StringBuffer();
-      List<Itinerary> flightArr = new ArrayList<>();
-      directStatement.clearParameters();
-      directStatement.setInt(1, numberOfItineraries);
-      directStatement.setString(2, originCity);
-      directStatement.setString(3, destinationCity);
-      directStatement.setInt(4, dayOfMonth);
-      ResultSet rs = directStatement.executeQuery();
-      int directCount = 0;
-      if (!rs.next()) {
-        return "No flights match your selection\n";
+      out.setLength(0);
+      FlightsVersion.shared().check(this::loadFlightsVersion);
+      // identical searches from any session are answered from the shared cache, and concurrent
+      // misses wait for a single session's queries
+      List<Itinerary> flightArr = null;
+      // filtered searches load more rows until enough of them are usable
+      for (int rows = numberOfItineraries; flightArr == null; rows = rows * 2) {
+        final int limit = rows;
+        SearchCache.Entry entry = SearchCache.shared().getOrLoad(originCity, destinationCity,
+                directFlight, dayOfMonth, limit,
+                () -> searchFlights(originCity, destinationCity, directFlight, dayOfMonth, limit));
+        flightArr = usable == null ? entry.itineraries(numberOfItineraries)
+                : entry.itineraries(numberOfItineraries, usable);
       }
-      do {
-        Flight flight = new Flight();
-        setFlight(flight, rs, "");
-        flightArr.add(new Itinerary(flight, null));
-        directCount++;
-      } while (rs.next());
-      if (!directFlight && directCount < numberOfItineraries) {
-        // execute indirect flight search
-        indirectStatement.setInt(1, numberOfItineraries - directCount);
-        indirectStatement.setString(2, originCity);
-        indirectStatement.setString(3, destinationCity);
-        indirectStatement.setInt(4, dayOfMonth);
-        indirectStatement.setInt(5, dayOfMonth);
-        ResultSet rss = indirectStatement.executeQuery();
-        while (rss.next()) {
-          Flight flight1 = new Flight();
-          setFlight(flight1, rss, "f1_");
-          Flight flight2 = new Flight();
-          setFlight(flight2, rss, "f2_");
-          flightArr.add(new Itinerary(flight1, flight2));
-        }
-        rss.close();
+      if (flightArr.isEmpty()) {
+        return "No flights match your selection\n";
       }
       // sort
-      Collections.sort(flightArr, (o1, o2) -> {
-        if (o1.getTotalTime() != o2.getTotalTime()) {
-          return o1.getTotalTime() - o2.getTotalTime();
-        } else if (o1.flight1.fid != o2.flight1.fid) {
-          return o1.flight1.fid - o2.flight1.fid;
-        }
-        return o1.flight2.fid - o2.flight2.fid;
-      });
+      Collections.sort(flightArr, Itinerary::compareForSearch);
       // update itinerary table
       for (int i = 0; i < flightArr.size(); i++) {
         if (flightArr.get(i).flight1 != null && flightArr.get(i).flight2 == null) {
-          // string buffer print out str
-          // Itinerary 0: 2 flight(s), 317 minutes
-          sb.append("Itinerary " + i + ": 1 flight(s), " + flightArr.get(i).getTotalTime() + " minutes\n");
-          sb.append(flightArr.get(i).flight1.toString() + "\n");
+          // Itinerary 0: 1 flight(s), 317 minutes
+          out.append("Itinerary ").append(i).append(": 1 flight(s), ")
+                  .append(flightArr.get(i).getTotalTime()).append(" minutes\n");
+          flightArr.get(i).flight1.appendTo(out).append('\n');
           // itinerary table insert rows
           // i, flightArr[i].flight1.fid, null
           insertItineraryStatement.setInt(1, i);
           insertItineraryStatement.setInt(2, flightArr.get(i).flight1.fid);
           insertItineraryStatement.setNull(3, Types.INTEGER);
+          insertItineraryStatement.setInt(4, flightArr.get(i).getTotalPrice());
           insertItineraryStatement.executeUpdate();
         } else if (flightArr.get(i).flight1 != null && flightArr.get(i).flight2 != null) {
-          sb.append("Itinerary " + i + ": 2 flight(s), " + flightArr.get(i).getTotalTime() + " minutes\n");
-          sb.append(flightArr.get(i).flight1.toString() + "\n");
-          sb.append(flightArr.get(i).flight2.toString() + "\n");
+          out.append("Itinerary ").append(i).append(": 2 flight(s), ")
+                  .append(flightArr.get(i).getTotalTime()).append(" minutes\n");
+          flightArr.get(i).flight1.appendTo(out).append('\n');
+          flightArr.get(i).flight2.appendTo(out).append('\n');
           insertItineraryStatement.setInt(1, i);
           insertItineraryStatement.setInt(2, flightArr.get(i).flight1.fid);
           insertItineraryStatement.setInt(3, flightArr.get(i).flight2.fid);
+          insertItineraryStatement.setInt(4, flightArr.get(i).getTotalPrice());
           insertItineraryStatement.executeUpdate();
         }
       }
-      rs.close();
-      return sb.toString();
-    } catch (SQLException e) {
+      flushResponse();
+      return out.toString();
+    } catch (SQLException | IOException e) {
+      e.printStackTrace();
+    }
+    return "Failed to search\n";
+  }
+
+  /**
+   * Implements the ranked search function over the in-memory index of the day's flights.
+   *
+   * @see QueryAbstract#searchRanked
+   */
+  public String transaction_searchRanked(String originCity, String destinationCity, boolean directFlight,
+                                         int dayOfMonth, int numberOfItineraries,
+                                         ItineraryRanker.Order order, boolean availableOnly) {
+    if (order == ItineraryRanker.Order.TIME && availableOnly) {
+      // the same itineraries as search, minus the sold-out ones
+      try {
+        SeatAvailability seats = SeatAvailability.shared();
+        seats.load(dayOfMonth, this::loadSoldOut);
+        return search(originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries,
+                flight -> seats.isAvailable(flight.fid));
+      } catch (SQLException e) {
+        e.printStackTrace();
+        return "Failed to search\n";
+      }
+    }
+    try {
+      clearItineraryStatement.executeUpdate();
+      out.setLength(0);
+      FlightsVersion.shared().check(this::loadFlightsVersion);
+      FlightIndex index = FlightIndex.forDay(dayOfMonth, this::loadFlights);
+      RouteFinder finder;
+      if (availableOnly) {
+        SeatAvailability seats = SeatAvailability.shared();
+        seats.load(dayOfMonth, this::loadSoldOut);
+        finder = new RouteFinder(index, flight -> seats.isAvailable(flight.fid));
+      } else {
+        finder = new RouteFinder(index);
+      }
+      return renderRoutes(ItineraryRanker.rank(finder, originCity, destinationCity, directFlight, order,
+              numberOfItineraries));
+    } catch (SQLException | IOException e) {
       e.printStackTrace();
     }
     return "Failed to search\n";
   }
 
+  /**
+   * Implements the multi-hop search function over the in-memory index of the day's flights.
+   *
+   * @see QueryAbstract#searchMultiHop
+   */
+  public String transaction_searchMultiHop(String originCity, String destinationCity, int maxFlights,
+                                           int dayOfMonth, int numberOfItineraries) {
+    try {
+      clearItineraryStatement.executeUpdate();
+      out.setLength(0);
+      FlightsVersion.shared().check(this::loadFlightsVersion);
+      FlightIndex index = FlightIndex.forDay(dayOfMonth, this::loadFlights);
+      List<Route> routes = new RouteFinder(index).find(originCity, destinationCity,
+              Math.min(maxFlights, MAX_HOPS), numberOfItineraries);
+      return renderRoutes(routes);
+    } catch (SQLException | IOException e) {
+      e.printStackTrace();
+    }
+    return "Failed to search\n";
+  }
+
+  /**
+   * Implements the flexible-date search function over the in-memory indexes of each day.
+   *
+   * @see QueryAbstract#searchFlexible
+   */
+  public String transaction_searchFlexible(String originCity, String destinationCity, boolean directFlight,
+                                           int dayOfMonth, int dayWindow, int numberOfItineraries) {
+    try {
+      clearItineraryStatement.executeUpdate();
+      out.setLength(0);
+      FlightsVersion.shared().check(this::loadFlightsVersion);
+      // days already indexed are shared with every other search; only new days hit the database
+      List<FlightIndex> days = new ArrayList<>();
+      for (int day = Math.max(1, dayOfMonth - dayWindow); day <= Math.min(31, dayOfMonth + dayWindow); day++) {
+        days.add(FlightIndex.forDay(day, this::loadFlights));
+      }
+      int maxFlights = directFlight ? 1 : 2;
+      List<Route> routes = days.parallelStream()
+              .flatMap(index -> new RouteFinder(index)
+                      .find(originCity, destinationCity, maxFlights, numberOfItineraries).stream())
+              .sorted()
+              .limit(Math.max(numberOfItineraries, 0))
+              .collect(Collectors.toList());
+      return renderRoutes(routes);
+    } catch (SQLException | IOException e) {
+      e.printStackTrace();
+    }
+    return "Failed to search\n";
+  }
+
+  /**
+   * Renders ranked itineraries in the search format and records the bookable ones.
+   */
+  private String renderRoutes(List<Route> routes) throws SQLException, IOException {
+    if (routes.isEmpty()) {
+      return "No flights match your selection\n";
+    }
+    for (int i = 0; i < routes.size(); i++) {
+      Route route = routes.get(i);
+      out.append("Itinerary ").append(i).append(": ").append(route.size()).append(" flight(s), ")
+              .append(route.getTotalTime()).append(" minutes\n");
+      for (int j = 0; j < route.size(); j++) {
+        route.flight(j).appendTo(out).append('\n');
+      }
+      // the Itineraries table only holds two legs, so longer itineraries cannot be booked
+      if (route.size() <= 2) {
+        insertItineraryStatement.setInt(1, i);
+        insertItineraryStatement.setInt(2, route.flight(0).fid);
+        if (route.size() == 2) {
+          insertItineraryStatement.setInt(3, route.flight(1).fid);
+        } else {
+          insertItineraryStatement.setNull(3, Types.INTEGER);
+        }
+        insertItineraryStatement.setInt(4, route.getTotalPrice());
+        insertItineraryStatement.executeUpdate();
+      }
+    }
+    flushResponse();
+    return out.toString();
+  }
+
+  /**
+   * Reads the change counter of Flights, or 0 if the database has none.
+   */
+  private long loadFlightsVersion() throws SQLException {
+    try (ResultSet rs = flightsVersionStatement.executeQuery()) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  /**
+   * Loads the fids of a day's flights that have no seats left.
+   */
+  private List<Integer> loadSoldOut(int dayOfMonth) throws SQLException {
+    List<Integer> fids = new ArrayList<>();
+    soldOutByDayStatement.clearParameters();
+    soldOutByDayStatement.setInt(1, dayOfMonth);
+    ResultSet rs = soldOutByDayStatement.executeQuery();
+    while (rs.next()) {
+      fids.add(rs.getInt("fid"));
+    }
+    rs.close();
+    return fids;
+  }
+
+  /**
+   * Loads the non-canceled flights of a day, in fid order, from the flight snapshot if one is
+   * configured and from the database otherwise.
+   */
+  private List<Flight> loadFlights(int dayOfMonth) throws SQLException {
+    try {
+      FlightSnapshot snapshot = FlightSnapshot.configured();
+      if (snapshot != null) {
+        return snapshot.load(dayOfMonth);
+      }
+    } catch (IOException e) {
+      throw new SQLException("Cannot read the flight snapshot", e);
+    }
+    List<Flight> flights = new ArrayList<>();
+    flightsByDayStatement.clearParameters();
+    flightsByDayStatement.setInt(1, dayOfMonth);
+    ResultSet rs = flightsByDayStatement.executeQuery();
+    while (rs.next()) {
+      Flight flight = new Flight();
+      setFlight(flight, rs, 1);
+      flights.add(flight);
+    }
+    rs.close();
+    return flights;
+  }
+
+  /**
+   * Runs the direct and indirect search statements for one search. Indirect itineraries are only
+   * fetched to fill the slots the direct flights leave over, and not at all when no direct flight
+   * matches.
+   */
+  private SearchCache.Entry searchFlights(String originCity, String destinationCity, boolean directFlight,
+                                          int dayOfMonth, int numberOfItineraries) throws SQLException {
+    List<Flight> directs = new ArrayList<>();
+    List<Itinerary> indirects = new ArrayList<>();
+    directStatement.clearParameters();
+    directStatement.setInt(1, numberOfItineraries);
+    directStatement.setString(2, originCity);
+    directStatement.setString(3, destinationCity);
+    directStatement.setInt(4, dayOfMonth);
+    ResultSet rs = directStatement.executeQuery();
+    while (rs.next()) {
+      Flight flight = new Flight();
+      setFlight(flight, rs, 1);
+      directs.add(flight);
+    }
+    rs.close();
+    if (!directs.isEmpty() && !directFlight && directs.size() < numberOfItineraries) {
+      // execute indirect flight search
+      ResultSet rss;
+      if (USE_CONNECTIONS) {
+        connectionStatement.clearParameters();
+        connectionStatement.setInt(1, numberOfItineraries - directs.size());
+        connectionStatement.setInt(2, dayOfMonth);
+        connectionStatement.setString(3, originCity);
+        connectionStatement.setString(4, destinationCity);
+        rss = connectionStatement.executeQuery();
+      } else {
+        indirectStatement.setInt(1, numberOfItineraries - directs.size());
+        indirectStatement.setString(2, originCity);
+        indirectStatement.setString(3, destinationCity);
+        indirectStatement.setInt(4, dayOfMonth);
+        indirectStatement.setInt(5, dayOfMonth);
+        rss = indirectStatement.executeQuery();
+      }
+      while (rss.next()) {
+        Flight flight1 = new Flight();
+        setFlight(flight1, rss, 1);
+        Flight flight2 = new Flight();
+        setFlight(flight2, rss, 1 + FLIGHT_COLUMNS);
+        indirects.add(new Itinerary(flight1, flight2));
+      }
+      rss.close();
+    }
+    return new SearchCache.Entry(numberOfItineraries, directs, indirects, directFlight);
+  }
+
 
   /**
    * Implements the book itinerary function.
@@ -424,6 +738,9 @@ public class Query extends QueryAbstract {
       return "Cannot book reservations, not logged in\n";
     }
     try {
+      if (bookProcedure != null) {
+        return bookWithProcedure(itineraryId);
+      }
       searchItineraryStatement.clearParameters();
       searchItineraryStatement.setInt(1, itineraryId);
       ResultSet rs = searchItineraryStatement.executeQuery();
@@ -432,6 +749,10 @@ public class Query extends QueryAbstract {
       }
       int fid1 = rs.getInt("fid1");
       int fid2 = rs.getInt("fid2");
+      int price = rs.getInt("Price");
+      if (bookingCoordinator != null) {
+        return bookThroughCoordinator(itineraryId, fid1, fid2, price);
+      }
       // check capacity
       // check the first flight
       int capacity = checkFlightCapacity(fid1);
@@ -458,36 +779,93 @@ public class Query extends QueryAbstract {
           return "You cannot book two flights in the same day\n";
         }
       }
-      // insert into the reservation tables
-      // get reservation id
-      int reservationID = getReservationID();
-      insertReservation(reservationID, itineraryId, loginUserName);
       rs.close();
-      return "Booked flight(s), reservation ID: " + getReservationID() + "\n";
+      // insert into the reservation tables
+      int reservationID = insertReservation(itineraryId, loginUserName, fid1, fid2, price);
+      return "Booked flight(s), reservation ID: " + reservationID + "\n";
     } catch (SQLException throwables) {
       throwables.printStackTrace();
       return "Booking failed\n";
     }
   }
 
-  private void insertReservation(int reservationID, int itineraryId, String loginUserName) throws SQLException {
-    insertReservationStatement.clearParameters();
-    insertReservationStatement.setInt(1, reservationID);
-    insertReservationStatement.setInt(2, 0);
-    insertReservationStatement.setInt(3, 0);
-    insertReservationStatement.setInt(4, itineraryId);
-    insertReservationStatement.setString(5, loginUserName);
-    insertReservationStatement.executeQuery();
-  }
-
-  private int getReservationID() throws SQLException {
-    reservationCountStatement.clearParameters();
-    reservationCountStatement.setString(1, loginUserName);
-    ResultSet rs = reservationCountStatement.executeQuery();
+  /**
+   * Hands the booking to the coordinator, which checks seats and the same-day rule and commits it
+   * together with other sessions' bookings.
+   */
+  private String bookThroughCoordinator(int itineraryId, int fid1, int fid2, int price)
+          throws SQLException {
+    searchFIDStatement.clearParameters();
+    searchFIDStatement.setInt(1, fid1);
+    ResultSet rs = searchFIDStatement.executeQuery();
     rs.next();
-    int count = rs.getInt("count");
+    int date = rs.getInt("day_of_month");
     rs.close();
-    return count + 1;
+    try {
+      return bookingCoordinator.book(loginUserName, itineraryId, fid1, fid2, price, date).join();
+    } catch (CompletionException e) {
+      e.printStackTrace();
+      return "Booking failed\n";
+    }
+  }
+
+  /**
+   * Books through the BookItinerary procedure, in one round trip.
+   */
+  private String bookWithProcedure(int itineraryId) throws SQLException {
+    bookProcedure.clearParameters();
+    bookProcedure.setString(1, loginUserName);
+    bookProcedure.setInt(2, itineraryId);
+    for (int i = 3; i <= 8; i++) {
+      bookProcedure.registerOutParameter(i, Types.INTEGER);
+    }
+    bookProcedure.execute();
+    switch (bookProcedure.getInt(3)) {
+      case 0:
+        updateSeats(bookProcedure, 5);
+        return "Booked flight(s), reservation ID: " + bookProcedure.getInt(4) + "\n";
+      case 1:
+        return "No such itinerary " + itineraryId + "\n";
+      case 2:
+        return "You cannot book two flights in the same day\n";
+      default:
+        return "Booking failed\n";
+    }
+  }
+
+  /**
+   * Publishes the seats left reported by a procedure as fid1, seats1, fid2, seats2 output
+   * parameters starting at {@code first}.
+   */
+  private void updateSeats(CallableStatement procedure, int first) throws SQLException {
+    SeatAvailability.shared().update(procedure.getInt(first), procedure.getInt(first + 1));
+    int fid2 = procedure.getInt(first + 2);
+    if (fid2 != 0) {
+      SeatAvailability.shared().update(fid2, procedure.getInt(first + 3));
+    }
+  }
+
+  /**
+   * Inserts an unpaid reservation and returns its id.
+   */
+  private int insertReservation(int itineraryId, String loginUserName, int fid1, int fid2, int price)
+          throws SQLException {
+    insertReservationStatement.clearParameters();
+    insertReservationStatement.setInt(1, 0);
+    insertReservationStatement.setInt(2, 0);
+    insertReservationStatement.setInt(3, itineraryId);
+    insertReservationStatement.setString(4, loginUserName);
+    insertReservationStatement.setInt(5, fid1);
+    if (fid2 != 0) {
+      insertReservationStatement.setInt(6, fid2);
+    } else {
+      insertReservationStatement.setNull(6, Types.INTEGER);
+    }
+    insertReservationStatement.setInt(7, price);
+    try (ResultSet rs = insertReservationStatement.executeQuery()) {
+      rs.next();
+      return rs.getInt(1);
+    }
   }
   private void updateCapacity(int capacity, int fid) throws SQLException {
     // update fid1 capacity 1. capacity 2. fid
@@ -495,6 +873,7 @@ public class Query extends QueryAbstract {
     updateFlightCapacityStatement.setInt(1, capacity - 1);
     updateFlightCapacityStatement.setInt(2, fid);
     updateFlightCapacityStatement.executeUpdate();
+    SeatAvailability.shared().update(fid, capacity - 1);
   }
 
   /**
@@ -517,6 +896,9 @@ public class Query extends QueryAbstract {
     }
     // select the reservation with reservation ID
     try {
+      if (payProcedure != null) {
+        return payWithProcedure(reservationId);
+      }
       // "SELECT * FROM Reservations WHERE ReservationID = ?";
       selectReservationStatement.clearParameters();
       selectReservationStatement.setInt(1, reservationId);
@@ -530,7 +912,8 @@ public class Query extends QueryAbstract {
       }
       // select the user balance
       int balance = getUserBalance();
-      int price = getTotalTicketPrice(rs);
+      // total price is stored on the reservation at booking time
+      int price = rs.getInt("Price");
       if (price > balance) {
         return "User has only " + balance +" in account but itinerary costs " + price + "\n";
       }
@@ -553,29 +936,30 @@ public class Query extends QueryAbstract {
     return "Failed to pay for reservation " + reservationId + "\n";
   }
 
-  private int getTotalTicketPrice(ResultSet rs) throws SQLException {
-    int itineraryID = rs.getInt("ItineraryID");
-    searchItineraryStatement.clearParameters();
-    searchItineraryStatement.setInt(1, itineraryID);
-    ResultSet rss = searchItineraryStatement.executeQuery();
-    rss.next();
-    int fid1 = rss.getInt("fid1");
-    int fid2 = rss.getInt("fid2");
-    searchFIDStatement.clearParameters();
-    searchFIDStatement.setInt(1, fid1);
-    rss = searchFIDStatement.executeQuery();
-    rss.next();
-    int price = rss.getInt("price");
-    if (fid2 != 0) {
-      searchFIDStatement.clearParameters();
-      searchFIDStatement.setInt(2, fid2);
-      rss = searchItineraryStatement.executeQuery();
-      rss.next();
-      price += rss.getInt("price");
+  /**
+   * Pays through the PayReservation procedure, in one round trip.
+   */
+  private String payWithProcedure(int reservationId) throws SQLException {
+    payProcedure.clearParameters();
+    payProcedure.setString(1, loginUserName);
+    payProcedure.setInt(2, reservationId);
+    for (int i = 3; i <= 5; i++) {
+      payProcedure.registerOutParameter(i, Types.INTEGER);
+    }
+    payProcedure.execute();
+    switch (payProcedure.getInt(3)) {
+      case 0:
+        return "Paid reservation: " + reservationId + " remaining balance: " + payProcedure.getInt(4) + "\n";
+      case 1:
+        return "Cannot find unpaid reservation " + reservationId + "under user: " + loginUserName + "\n";
+      case 3:
+        return "User has only " + payProcedure.getInt(4) + " in account but itinerary costs "
+                + payProcedure.getInt(5) + "\n";
+      default:
+        return "Failed to pay for reservation " + reservationId + "\n";
     }
-    rss.close();
-    return price;
   }
+
   private void updateUnpaidReservationToPaid(int reservationId) throws SQLException {
     updateReservationStatement.clearParameters();
     updateReservationStatement.setInt(1, reservationId);
@@ -625,53 +1009,103 @@ public class Query extends QueryAbstract {
       if (!rs.next()) {
         return "No reservations found\n";
       }
-      StringBuffer sb = new StringBuffer();
+      out.setLength(0);
       do {
-        int reservationID = rs.getInt("ReservationID");
-        boolean isPaid = rs.getInt("IsPaid") == 1? true : false;
+        int reservationID = rs.getInt(1);
+        boolean isPaid = rs.getInt(2) == 1? true : false;
         // select flight information
-        sb.append("Reservation " + reservationID + " paid: " + isPaid + "\n");
-        int itineraryID = rs.getInt("ItineraryID");
-        searchItineraryStatement.clearParameters();
-        searchItineraryStatement.setInt(1, itineraryID);
-        rs = searchItineraryStatement.executeQuery();
-        rs.next();
-        int fid1 = rs.getInt("fid1");
+        out.append("Reservation ").append(reservationID).append(" paid: ").append(isPaid).append('\n');
+        int fid1 = rs.getInt(3);
         Flight flight1 = getFlight(fid1);
-        sb.append(flight1 + "\n");
-        int fid2 = rs.getInt("fid2");
+        flight1.appendTo(out).append('\n');
+        int fid2 = rs.getInt(4);
         if (fid2 != 0) {
           Flight flight2 = getFlight(fid2);
-          sb.append(flight2 + "\n");
+          flight2.appendTo(out).append('\n');
         }
       } while (rs.next());
-      return sb.toString();
-    } catch (SQLException e) {
+      flushResponse();
+      return out.toString();
+    } catch (SQLException | IOException e) {
       e.printStackTrace();
     }
     return "Failed to retrieve reservations\n";
   }
 
+  /**
+   * The user logged in on this session, or null.
+   */
+  public String getLoginUserName() {
+    return isLogin ? loginUserName : null;
+  }
+
+  /**
+   * Identifies the session, for as long as this JVM runs.
+   */
+  public long getSessionId() {
+    return sessionId;
+  }
+
+  /**
+   * A session id not used yet.
+   */
+  static long newSessionId() {
+    return NEXT_SESSION_ID.incrementAndGet();
+  }
+
+  /**
+   * Continues a terminal whose commands run on several Query objects, see {@link QueryPool}: takes
+   * its session id, and logs {@code loginUserName} in without a password, or logs out if it is
+   * null.
+   */
+  void resumeSession(long sessionId, String loginUserName) {
+    this.sessionId = sessionId;
+    this.isLogin = loginUserName != null;
+    this.loginUserName = loginUserName;
+  }
+
+  /**
+   * Commits this session's bookings through a coordinator shared with other sessions, or
+   * directly if {@code coordinator} is null.
+   */
+  public void setBookingCoordinator(BookingCoordinator coordinator) {
+    this.bookingCoordinator = coordinator;
+  }
+
+  /**
+   * Moves a complete rendered response to the response sink, if there is one.
+   */
+  private void flushResponse() throws IOException {
+    if (responseSink != null) {
+      responseSink.append(out);
+      out.setLength(0);
+    }
+  }
+
   private Flight getFlight(int fid) throws SQLException {
     searchFIDStatement.clearParameters();
     searchFIDStatement.setInt(1, fid);
     ResultSet rs = searchFIDStatement.executeQuery();
     rs.next();
     Flight flight = new Flight();
-    setFlight(flight, rs, "");
+    setFlight(flight, rs, 1);
     return flight;
   }
 
-  private void setFlight(Flight flight, ResultSet rs, String prefix) throws SQLException {
-    flight.fid = rs.getInt(prefix + "fid");
-    flight.dayOfMonth = rs.getInt(prefix + "day_of_month");
-    flight.carrierId = rs.getString(prefix + "carrier_id");
-    flight.flightNum = rs.getString(prefix + "flight_num");
-    flight.originCity = rs.getString(prefix + "origin_city");
-    flight.destCity = rs.getString(prefix + "dest_city");
-    flight.time = rs.getInt(prefix + "actual_time");
-    flight.capacity = rs.getInt(prefix + "capacity");
-    flight.price = rs.getInt(prefix + "price");
+  /**
+   * Reads the {@link #FLIGHT_COLUMNS} flight columns starting at column {@code first}.
+   */
+  private void setFlight(Flight flight, ResultSet rs, int first) throws SQLException {
+    flight.fid = rs.getInt(first);
+    flight.dayOfMonth = rs.getInt(first + 1);
+    flight.carrier = NameDictionary.carriers().id(rs.getString(first + 2));
+    flight.number = NameDictionary.flightNumbers().id(rs.getString(first + 3));
+    NameDictionary cities = NameDictionary.cities();
+    flight.origin = cities.id(rs.getString(first + 4));
+    flight.dest = cities.id(rs.getString(first + 5));
+    flight.time = rs.getInt(first + 6);
+    flight.capacity = rs.getInt(first + 7);
+    flight.price = rs.getInt(first + 8);
   }
 
   /**
@@ -690,6 +1124,9 @@ public class Query extends QueryAbstract {
       return "Cannot cancel reservations, not logged in\n";
     }
     try {
+      if (cancelProcedure != null) {
+        return cancelWithProcedure(reservationId);
+      }
       selectReservationStatement.clearParameters();
       selectReservationStatement.setInt(1, reservationId);
       ResultSet rs = selectReservationStatement.executeQuery();
@@ -703,7 +1140,7 @@ public class Query extends QueryAbstract {
       if (isPaid == 1) {
         // refund
         // update user table added with itinerary total price
-        int refund = getTotalTicketPrice(rs);
+        int refund = rs.getInt("Price");
         selectUserNameStatement.clearParameters();
         selectUserNameStatement.setString(1, loginUserName);
         ResultSet rss = selectUserNameStatement.executeQuery();
@@ -715,6 +1152,12 @@ public class Query extends QueryAbstract {
       // update the reservation table where reservationId = reservationId
       // UPDATE Reservations SET IsCancelled = 1 WHERE reservationID = ?
       updateCancelReservation(reservationId);
+      // give the seats back
+      releaseCapacity(rs.getInt("fid1"));
+      int fid2 = rs.getInt("fid2");
+      if (fid2 != 0) {
+        releaseCapacity(fid2);
+      }
       return "Canceled reservation " + reservationId + "\n";
     } catch (SQLException e) {
       e.printStackTrace();
@@ -722,6 +1165,31 @@ public class Query extends QueryAbstract {
     return "Failed to cancel reservation " + reservationId + "\n";
   }
 
+  /**
+   * Cancels through the CancelReservation procedure, in one round trip.
+   */
+  private String cancelWithProcedure(int reservationId) throws SQLException {
+    cancelProcedure.clearParameters();
+    cancelProcedure.setString(1, loginUserName);
+    cancelProcedure.setInt(2, reservationId);
+    for (int i = 3; i <= 7; i++) {
+      cancelProcedure.registerOutParameter(i, Types.INTEGER);
+    }
+    cancelProcedure.execute();
+    if (cancelProcedure.getInt(3) != 0) {
+      return "Failed to cancel reservation " + reservationId + "\n";
+    }
+    updateSeats(cancelProcedure, 4);
+    return "Canceled reservation " + reservationId + "\n";
+  }
+
+  private void releaseCapacity(int fid) throws SQLException {
+    releaseFlightCapacityStatement.clearParameters();
+    releaseFlightCapacityStatement.setInt(1, fid);
+    releaseFlightCapacityStatement.executeUpdate();
+    SeatAvailability.shared().update(fid, checkFlightCapacity(fid));
+  }
+
   private void updateCancelReservation(int reservationId) throws SQLException {
     updateCancelReservationStatement.clearParameters();
     updateCancelReservationStatement.setInt(1, reservationId);
@@ -748,31 +1216,78 @@ public class Query extends QueryAbstract {
   /**
    * A class to store flight information.
    */
-  class Flight {
+  static class Flight {
     public int fid;
     public int dayOfMonth;
-    public String carrierId;
-    public String flightNum;
-    public String originCity;
-    public String destCity;
+    // NameDictionary ids of the string columns
+    public int carrier;
+    public int number;
+    public int origin;
+    public int dest;
     public int time;
     public int capacity;
     public int price;
 
+    /**
+     * Appends the same text as {@link #toString()} without building intermediate strings.
+     */
+    public StringBuilder appendTo(StringBuilder sb) {
+      return sb.append("ID: ").append(fid).append(" Day: ").append(dayOfMonth)
+          .append(" Carrier: ").append(carrierId()).append(" Number: ").append(flightNum())
+          .append(" Origin: ").append(originCity()).append(" Dest: ").append(destCity())
+          .append(" Duration: ").append(time).append(" Capacity: ").append(capacity)
+          .append(" Price: ").append(price);
+    }
+
+    public String carrierId() {
+      return NameDictionary.carriers().name(carrier);
+    }
+
+    public String flightNum() {
+      return NameDictionary.flightNumbers().name(number);
+    }
+
+    public String originCity() {
+      return NameDictionary.cities().name(origin);
+    }
+
+    public String destCity() {
+      return NameDictionary.cities().name(dest);
+    }
+
     @Override
     public String toString() {
-      return "ID: " + fid + " Day: " + dayOfMonth + " Carrier: " + carrierId + " Number: "
-          + flightNum + " Origin: " + originCity + " Dest: " + destCity + " Duration: " + time
-          + " Capacity: " + capacity + " Price: " + price;
+      return appendTo(new StringBuilder()).toString();
     }
   }
-  class Itinerary {
+  static class Itinerary {
     public Flight flight1;
     public Flight flight2;
+    // ItineraryKeys key, or -1 if the itinerary is too large to pack
+    private final long sortKey;
 
     public Itinerary(Flight flight1, Flight flight2) {
       this.flight1 = flight1;
       this.flight2 = flight2;
+      int fid2 = flight2 == null ? 0 : flight2.fid;
+      sortKey = Math.max(flight1.fid, fid2) <= ItineraryKeys.MAX_FID
+          && getTotalTime() <= ItineraryKeys.MAX_TIME
+          ? ItineraryKeys.key(getTotalTime(), flight1.fid, fid2) : -1;
+    }
+
+    /**
+     * Orders itineraries by total time, then by fids, as search prints them.
+     */
+    public static int compareForSearch(Itinerary o1, Itinerary o2) {
+      if (o1.sortKey >= 0 && o2.sortKey >= 0) {
+        return Long.compare(o1.sortKey, o2.sortKey);
+      }
+      if (o1.getTotalTime() != o2.getTotalTime()) {
+        return o1.getTotalTime() - o2.getTotalTime();
+      } else if (o1.flight1.fid != o2.flight1.fid) {
+        return o1.flight1.fid - o2.flight1.fid;
+      }
+      return (o1.flight2 == null ? 0 : o1.flight2.fid) - (o2.flight2 == null ? 0 : o2.flight2.fid);
     }
     public int getTotalTime() {
       if (flight2 == null) {
@@ -780,5 +1295,11 @@ public class Query extends QueryAbstract {
       }
       return flight1.time + flight2.time;
     }
+    public int getTotalPrice() {
+      if (flight2 == null) {
+        return flight1.price;
+      }
+      return flight1.price + flight2.price;
+    }
   }
 }
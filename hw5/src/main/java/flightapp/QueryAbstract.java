@@ -72,6 +72,12 @@ public abstract class QueryAbstract {
     // By default, set the transaction isolation level to serializable
     conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
 
+    // time every statement when profiling is on
+    StatementProfiler profiler = StatementProfiler.shared();
+    if (profiler != null) {
+      conn = new ProfilingConnection(conn, profiler);
+    }
+
     return conn;
   }
 
@@ -173,6 +179,113 @@ public abstract class QueryAbstract {
   public abstract String transaction_search(String originCity, String destinationCity, boolean directFlight,
                                             int dayOfMonth, int numberOfItineraries);
 
+  /**
+   * Implements the ranked search function.
+   *
+   * Searches like {@link #search}, but considers every direct and, unless {@code directFlight},
+   * every one-stop itinerary of the day, and returns the best {@code numberOfItineraries} of them
+   * in the given order.
+   *
+   * With the time order and {@code availableOnly}, the result is instead exactly that of
+   * {@link #search} over the flights with seats left: the fastest available direct flights first,
+   * then available one-stop itineraries for the remaining slots.
+   *
+   * @param originCity
+   * @param destinationCity
+   * @param directFlight        if true, then only search for direct flights, otherwise include
+   *                            indirect flights as well
+   * @param dayOfMonth
+   * @param numberOfItineraries number of itineraries to return
+   * @param order               how itineraries are ranked; ties are broken by total flight time,
+   *                            then by the fids of their flights
+   * @param availableOnly       if true, skip itineraries with a flight that has no seats left
+   *
+   * @return the same responses, in the same format, as {@link #search}.
+   */
+  public final String searchRanked(String originCity, String destinationCity, boolean directFlight,
+                                   int dayOfMonth, int numberOfItineraries,
+                                   ItineraryRanker.Order order, boolean availableOnly) {
+    try {
+      return transaction_searchRanked(originCity, destinationCity, directFlight, dayOfMonth,
+          numberOfItineraries, order, availableOnly);
+    } finally {
+      checkDanglingTransaction();
+    }
+  }
+
+  public abstract String transaction_searchRanked(String originCity, String destinationCity,
+                                                  boolean directFlight, int dayOfMonth,
+                                                  int numberOfItineraries,
+                                                  ItineraryRanker.Order order,
+                                                  boolean availableOnly);
+
+  /**
+   * Implements the multi-hop search function.
+   *
+   * Searches for itineraries of up to {@code maxFlights} flights from the given origin city to the
+   * given destination city on the given day of the month. Itineraries never pass through the same
+   * city twice. Only returns up to the number of itineraries given by {@code numberOfItineraries}.
+   *
+   * The results are sorted based on total flight time, then on the fids of their flights.
+   *
+   * @param originCity
+   * @param destinationCity
+   * @param maxFlights          maximum number of flights in an itinerary
+   * @param dayOfMonth
+   * @param numberOfItineraries number of itineraries to return
+   *
+   * @return the same responses, in the same format, as {@link #search}. Itineraries of more than
+   *         two flights are listed but cannot be booked.
+   */
+  public final String searchMultiHop(String originCity, String destinationCity, int maxFlights,
+                                     int dayOfMonth, int numberOfItineraries) {
+    try {
+      return transaction_searchMultiHop(originCity, destinationCity, maxFlights, dayOfMonth,
+          numberOfItineraries);
+    } finally {
+      checkDanglingTransaction();
+    }
+  }
+
+  public abstract String transaction_searchMultiHop(String originCity, String destinationCity,
+                                                    int maxFlights, int dayOfMonth,
+                                                    int numberOfItineraries);
+
+  /**
+   * Implements the flexible-date search function.
+   *
+   * Finds the direct and, unless {@code directFlight}, one-stop itineraries of every day from
+   * {@code dayOfMonth - dayWindow} to {@code dayOfMonth + dayWindow} within the month, and returns
+   * the fastest ones over all of those days.
+   *
+   * Unlike {@link #search}, direct flights are not preferred: 1- and 2-flight itineraries of all
+   * days are merged purely by total flight time, then by the fids of their flights, so a fast
+   * one-stop itinerary on another day can come before every direct flight.
+   *
+   * @param originCity
+   * @param destinationCity
+   * @param directFlight        if true, then only search for direct flights, otherwise include
+   *                            indirect flights as well
+   * @param dayOfMonth          the preferred day
+   * @param dayWindow           number of days searched before and after the preferred day
+   * @param numberOfItineraries number of itineraries to return
+   *
+   * @return the same responses, in the same format, as {@link #search}, in the order above.
+   */
+  public final String searchFlexible(String originCity, String destinationCity, boolean directFlight,
+                                     int dayOfMonth, int dayWindow, int numberOfItineraries) {
+    try {
+      return transaction_searchFlexible(originCity, destinationCity, directFlight, dayOfMonth,
+          dayWindow, numberOfItineraries);
+    } finally {
+      checkDanglingTransaction();
+    }
+  }
+
+  public abstract String transaction_searchFlexible(String originCity, String destinationCity,
+                                                    boolean directFlight, int dayOfMonth,
+                                                    int dayWindow, int numberOfItineraries);
+
   /**
    * Implements the book itinerary function.
    *
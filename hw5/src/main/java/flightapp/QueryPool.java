@@ -0,0 +1,163 @@
+package flightapp;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.*;
+
+/**
+ * A bounded pool of database connections shared by many terminals in one JVM.
+ *
+ * Each pooled connection is held by a {@link Query}, so its prepared statements are reused too.
+ * A terminal is a {@link Session}, which remembers only who is logged in and borrows a Query for
+ * each command, so thousands of terminals need no more than {@code size} connections. No
+ * transaction stays open between commands, so any Query can run a session's next command.
+ * All connections are opened up front, since opening a Query clears the Itineraries table that
+ * other terminals' searches are in. When all of them are busy, a command waits up to
+ * -Dflightapp.poolWaitMillis (default 30000) for one before it is turned away.
+ */
+public class QueryPool implements AutoCloseable {
+  /**
+   * Default number of connections, -Dflightapp.poolSize.
+   */
+  public static final int DEFAULT_SIZE = Integer.getInteger("flightapp.poolSize", 20);
+
+  private static final long WAIT_MILLIS = Long.getLong("flightapp.poolWaitMillis", 30000);
+
+  /**
+   * Opens a new Query on its own connection.
+   */
+  public interface QueryFactory {
+    Query open() throws SQLException, IOException;
+  }
+
+  private final int size;
+  private final BlockingQueue<Query> idle;
+  private volatile boolean closed;
+
+  /**
+   * Opens {@code size} connections.
+   */
+  public QueryPool(int size, QueryFactory factory) throws SQLException, IOException {
+    this.size = size;
+    this.idle = new ArrayBlockingQueue<>(size, true);
+    try {
+      for (int i = 0; i < size; i++) {
+        idle.add(factory.open());
+      }
+    } catch (SQLException | IOException | RuntimeException e) {
+      try {
+        close();
+      } catch (SQLException closing) {
+        e.addSuppressed(closing);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Creates a pool of {@link #DEFAULT_SIZE} connections from dbconn.properties.
+   */
+  public static QueryPool fromDbConn() throws SQLException, IOException {
+    return new QueryPool(DEFAULT_SIZE, Query::new);
+  }
+
+  /**
+   * Starts a new terminal, logged out. It holds no connection between commands.
+   */
+  public Session newSession() {
+    return new Session();
+  }
+
+  /**
+   * Number of connections, whether in use or not.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Closes every connection. Commands that are running finish on theirs, which are then closed.
+   */
+  @Override
+  public void close() throws SQLException {
+    synchronized (this) {
+      closed = true;
+    }
+    SQLException failure = null;
+    for (Query query; (query = idle.poll()) != null; ) {
+      try {
+        query.closeConnection();
+      } catch (SQLException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Lends an idle Query, or returns null if none is free in time.
+   */
+  private Query borrow() throws InterruptedException {
+    if (closed) {
+      throw new IllegalStateException("Pool is closed");
+    }
+    return idle.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private void giveBack(Query query) {
+    synchronized (this) {
+      if (!closed) {
+        idle.add(query);
+        return;
+      }
+    }
+    try {
+      query.closeConnection();
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * One terminal. Like a Query, a session runs one command at a time.
+   */
+  public final class Session {
+    private final long id = Query.newSessionId();
+    // null while logged out
+    private String loginUserName;
+
+    /**
+     * Runs a command line, as typed at the REPL, on whichever connection is free.
+     */
+    public String execute(String command) {
+      Query query;
+      try {
+        query = borrow();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return "Server busy, please try again\n";
+      }
+      if (query == null) {
+        return "Server busy, please try again\n";
+      }
+      try {
+        query.resumeSession(id, loginUserName);
+        String response = FlightService.execute(query, command);
+        loginUserName = query.getLoginUserName();
+        return response;
+      } finally {
+        query.resumeSession(Query.newSessionId(), null);
+        giveBack(query);
+      }
+    }
+
+    /**
+     * The user logged in on this terminal, or null.
+     */
+    public String getLoginUserName() {
+      return loginUserName;
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package flightapp;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-client token buckets in front of {@link FlightService#execute}.
+ *
+ * Clients are logged-in users, or session ids before login, so one user gets one budget however
+ * many terminals they open. Each client has a bucket per command type, refilled at
+ * {@code perSecond} tokens per second up to {@code burst} tokens. Buckets are lock-free: a bucket
+ * is the time at which it will be full again (GCRA), advanced with compare-and-set. Clients idle
+ * for longer than flightapp.rateLimit.idleSeconds (default 300) are dropped by a timer that runs
+ * as often, on a daemon thread started with the first bucket.
+ *
+ * Enabled with -Dflightapp.rateLimit=true. Limits can be set per type, e.g.
+ * -Dflightapp.rateLimit.search.perSecond=5 -Dflightapp.rateLimit.search.burst=10; a rate of 0
+ * disables limiting for that type.
+ */
+public class RateLimiter {
+  private static final boolean ENABLED = Boolean.getBoolean("flightapp.rateLimit");
+  private static final RateLimiter SHARED = new RateLimiter();
+
+  private static final long IDLE_SECONDS = Long.getLong("flightapp.rateLimit.idleSeconds", 300);
+
+  // nanoseconds per token and tokens of burst, per type; 0 nanoseconds per token means unlimited
+  private final long[] interval = new long[Command.Type.values().length];
+  private final long[] tolerance = new long[Command.Type.values().length];
+
+  private final ConcurrentMap<Object, Client> clients = new ConcurrentHashMap<>();
+  private final LongSupplier clock;
+  private final long idleNanos;
+  private final long sweepMillis;
+  private final AtomicBoolean sweeping = new AtomicBoolean();
+  private final LongAdder[] allowed = new LongAdder[Command.Type.values().length];
+  private final LongAdder[] throttled = new LongAdder[Command.Type.values().length];
+
+  public RateLimiter() {
+    this(System::nanoTime, TimeUnit.SECONDS.toNanos(IDLE_SECONDS),
+            TimeUnit.SECONDS.toMillis(IDLE_SECONDS));
+  }
+
+  /**
+   * @param clock       the time in nanoseconds, as System.nanoTime
+   * @param idleNanos   how long a client may be idle before it is dropped
+   * @param sweepMillis how often idle clients are dropped
+   */
+  RateLimiter(LongSupplier clock, long idleNanos, long sweepMillis) {
+    this.clock = clock;
+    this.idleNanos = idleNanos;
+    this.sweepMillis = sweepMillis;
+    for (Command.Type type : Command.Type.values()) {
+      double perSecond;
+      int burst;
+      switch (type) {
+        case LOGIN:
+        case CREATE:
+          perSecond = 1;
+          burst = 5;
+          break;
+        case SEARCH:
+        case FLEXSEARCH:
+        case ROUTE:
+          perSecond = 10;
+          burst = 20;
+          break;
+        case BOOK:
+        case RESERVATIONS:
+        case PAY:
+        case CANCEL:
+          perSecond = 5;
+          burst = 10;
+          break;
+        default:
+          perSecond = 0;
+          burst = 1;
+          break;
+      }
+      String name = "flightapp.rateLimit." + type.name().toLowerCase();
+      perSecond = Double.parseDouble(System.getProperty(name + ".perSecond", String.valueOf(perSecond)));
+      burst = Integer.getInteger(name + ".burst", burst);
+      int i = type.ordinal();
+      if (perSecond > 0) {
+        interval[i] = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        tolerance[i] = interval[i] * (Math.max(burst, 1) - 1);
+      }
+      allowed[i] = new LongAdder();
+      throttled[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * The limiter in front of {@link FlightService#execute}, or null if rate limiting is off.
+   */
+  public static RateLimiter shared() {
+    return ENABLED ? SHARED : null;
+  }
+
+  /**
+   * Takes a token from the client's bucket for the command type.
+   *
+   * @param client the user name, or the session id when no one is logged in; it is kept until the
+   *               client has been idle for a while, so it should not reference the session
+   * @return false if the client has used up its budget for this type
+   */
+  public boolean tryAcquire(Object client, Command.Type type) {
+    int i = type.ordinal();
+    if (interval[i] == 0) {
+      return true;
+    }
+    if (!sweeping.get() && sweeping.compareAndSet(false, true)) {
+      startSweeping();
+    }
+    long now = clock.getAsLong();
+    Client state = clients.computeIfAbsent(client, key -> new Client(now));
+    state.lastSeen = now;
+    AtomicLong full = state.full[i];
+    while (true) {
+      long current = full.get();
+      long start = Math.max(current, now);
+      if (start - now > tolerance[i]) {
+        throttled[i].increment();
+        return false;
+      }
+      if (full.compareAndSet(current, start + interval[i])) {
+        allowed[i].increment();
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Number of requests of a type turned away so far.
+   */
+  public long throttled(Command.Type type) {
+    return throttled[type.ordinal()].sum();
+  }
+
+  /**
+   * Number of limited requests of a type let through so far.
+   */
+  public long allowed(Command.Type type) {
+    return allowed[type.ordinal()].sum();
+  }
+
+  /**
+   * Number of clients with live buckets.
+   */
+  public int clients() {
+    return clients.size();
+  }
+
+  /**
+   * Drops the clients idle for longer than the idle time, as the timer does.
+   */
+  void sweep() {
+    long now = clock.getAsLong();
+    clients.values().removeIf(client -> now - client.lastSeen > idleNanos);
+  }
+
+  private void startSweeping() {
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "flightapp-rate-limit-sweep");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private static final class Client {
+    // per type, the time at which the bucket is full again
+    private final AtomicLong[] full = new AtomicLong[Command.Type.values().length];
+    private volatile long lastSeen;
+
+    Client(long now) {
+      lastSeen = now;
+      for (int i = 0; i < full.length; i++) {
+        full[i] = new AtomicLong(now);
+      }
+    }
+  }
+}
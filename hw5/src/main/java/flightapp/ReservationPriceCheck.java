@@ -0,0 +1,55 @@
+package flightapp;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Verifies the prices denormalized onto Reservations against the Flights table.
+ *
+ * Booking copies the itinerary's total price onto the reservation, and pay and cancel trust that
+ * copy. Run this after changing Flights prices to find the reservations that no longer agree.
+ */
+public class ReservationPriceCheck {
+  // reservations whose denormalized price no longer matches the prices in Flights
+  private static final String CHECK_RESERVATION_PRICES = "SELECT R.ReservationID, R.Price, " +
+          "F1.price + ISNULL(F2.price, 0) AS flight_price FROM Reservations AS R " +
+          "JOIN FLIGHTS AS F1 ON R.fid1 = F1.fid LEFT JOIN FLIGHTS AS F2 ON R.fid2 = F2.fid " +
+          "WHERE R.Price IS NULL OR R.Price <> F1.price + ISNULL(F2.price, 0) " +
+          "ORDER BY R.ReservationID";
+
+  private final Connection conn;
+
+  public ReservationPriceCheck(Connection conn) {
+    this.conn = conn;
+  }
+
+  /**
+   * @return IDs of reservations whose stored price differs from the sum of their flights' prices
+   */
+  public List<Integer> mismatched() throws SQLException {
+    List<Integer> mismatched = new ArrayList<>();
+    try (PreparedStatement check = conn.prepareStatement(CHECK_RESERVATION_PRICES);
+         ResultSet rs = check.executeQuery()) {
+      while (rs.next()) {
+        mismatched.add(rs.getInt("ReservationID"));
+      }
+    }
+    return mismatched;
+  }
+
+  /**
+   * Prints the mismatched reservations and exits with status 1 if there are any.
+   */
+  public static void main(String[] args) throws Exception {
+    List<Integer> mismatched;
+    try (Connection conn = QueryAbstract.openConnectionFromDbConn()) {
+      mismatched = new ReservationPriceCheck(conn).mismatched();
+    }
+    if (mismatched.isEmpty()) {
+      System.out.println("All reservation prices match Flights");
+    } else {
+      System.out.println(mismatched.size() + " reservation(s) with stale prices: " + mismatched);
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package flightapp;
+
+import java.util.*;
+
+/**
+ * An itinerary of any number of flights, ordered like search results: by total flight time,
+ * then by the fids of its flights in order.
+ */
+public class Route implements Comparable<Route> {
+  private final Query.Flight[] flights;
+  private final int totalTime;
+  private final int totalPrice;
+
+  public Route(Query.Flight... flights) {
+    this.flights = flights.clone();
+    int time = 0;
+    int price = 0;
+    for (Query.Flight flight : flights) {
+      time += flight.time;
+      price += flight.price;
+    }
+    this.totalTime = time;
+    this.totalPrice = price;
+  }
+
+  public int size() {
+    return flights.length;
+  }
+
+  public Query.Flight flight(int i) {
+    return flights[i];
+  }
+
+  public int getTotalTime() {
+    return totalTime;
+  }
+
+  public int getTotalPrice() {
+    return totalPrice;
+  }
+
+  @Override
+  public int compareTo(Route other) {
+    if (totalTime != other.totalTime) {
+      return Integer.compare(totalTime, other.totalTime);
+    }
+    for (int i = 0; i < flights.length && i < other.flights.length; i++) {
+      if (flights[i].fid != other.flights[i].fid) {
+        return Integer.compare(flights[i].fid, other.flights[i].fid);
+      }
+    }
+    return Integer.compare(flights.length, other.flights.length);
+  }
+}
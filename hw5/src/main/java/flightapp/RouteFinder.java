@@ -0,0 +1,292 @@
+package flightapp;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Finds the fastest itineraries of up to a given number of flights over one day's flights.
+ *
+ * Cities are the nodes of the graph and flights its edges, weighted by flight time. Partial
+ * itineraries are expanded best-first (A*), guided by each city's shortest remaining time to the
+ * destination, which a reverse Dijkstra pass computes up front. Because that bound never
+ * overestimates, complete itineraries come out of the queue in order of total time, and the
+ * search stops as soon as no partial itinerary can beat the n-th one found. Itineraries never
+ * visit a city twice, and only use flights accepted by the finder's filter. Cities are handled as
+ * {@link NameDictionary#cities()} ids, so names match regardless of case.
+ *
+ * A reverse breadth-first pass also counts each city's fewest flights to the destination, so
+ * partial itineraries that cannot arrive within the hop limit are never queued. When fewer than n
+ * itineraries exist, the queue can still fill with every short path around hub cities, so a
+ * search queues at most -Dflightapp.maxRouteLabels (default 200000) partial itineraries. It then
+ * returns the itineraries found until then, which are the fastest ones, together with every
+ * direct and one-stop itinerary, so those are never missed.
+ */
+public class RouteFinder {
+  private static final int MAX_LABELS = Integer.getInteger("flightapp.maxRouteLabels", 200000);
+
+  private final FlightIndex index;
+  private final Predicate<Query.Flight> usable;
+
+  public RouteFinder(FlightIndex index) {
+    this(index, flight -> true);
+  }
+
+  /**
+   * @param usable which flights itineraries may use, e.g. only those with seats left
+   */
+  public RouteFinder(FlightIndex index, Predicate<Query.Flight> usable) {
+    this.index = index;
+    this.usable = usable;
+  }
+
+  public FlightIndex index() {
+    return index;
+  }
+
+  /**
+   * Returns up to {@code n} itineraries from {@code originCity} to {@code destinationCity} with
+   * at most {@code maxHops} flights, sorted like search results.
+   */
+  public List<Route> find(String originCity, String destinationCity, int maxHops, int n) {
+    NameDictionary names = NameDictionary.cities();
+    return find(names.lookup(originCity), names.lookup(destinationCity), maxHops, n);
+  }
+
+  public List<Route> find(int originCity, int destinationCity, int maxHops, int n) {
+    List<Route> routes = new ArrayList<>();
+    if (n <= 0 || maxHops <= 0 || originCity == destinationCity
+            || originCity == NameDictionary.NULL_ID || destinationCity == NameDictionary.NULL_ID) {
+      return routes;
+    }
+    int[] remaining = remainingTimes(destinationCity);
+    int originBound = bound(remaining, originCity);
+    if (originBound == UNREACHABLE) {
+      return routes;
+    }
+    int[] minHops = minimumHops(destinationCity);
+
+    PriorityQueue<Label> queue = new PriorityQueue<>();
+    queue.add(new Label(null, null, originCity, 0, 0, originBound));
+    int nthTime = Integer.MAX_VALUE;
+    int labels = 0;
+    boolean truncated = false;
+    while (!queue.isEmpty()) {
+      Label label = queue.poll();
+      // later labels cannot beat the n-th itinerary; ties are kept for the fid ordering
+      if (routes.size() >= n && label.estimate > nthTime) {
+        break;
+      }
+      if (label.city == destinationCity) {
+        routes.add(label.toRoute());
+        if (routes.size() >= n) {
+          nthTime = Math.min(nthTime, label.time);
+        }
+        continue;
+      }
+      if (label.hops == maxHops) {
+        continue;
+      }
+      for (Query.Flight flight : index.departures(label.city)) {
+        int bound = bound(remaining, flight.dest);
+        // reachable implies flight.dest is a valid index into minHops
+        if (bound == UNREACHABLE || label.hops + 1 + minHops[flight.dest] > maxHops
+                || !usable.test(flight) || label.visits(flight.dest)) {
+          continue;
+        }
+        if (++labels > MAX_LABELS) {
+          // give up; the itineraries found so far are still the fastest ones
+          queue.clear();
+          truncated = true;
+          break;
+        }
+        int time = label.time + flight.time;
+        queue.add(new Label(label, flight, flight.dest, label.hops + 1, time, time + bound));
+      }
+    }
+    if (truncated) {
+      addShortRoutes(originCity, destinationCity, maxHops, routes);
+    }
+    Collections.sort(routes);
+    return routes.size() > n ? new ArrayList<>(routes.subList(0, n)) : routes;
+  }
+
+  /**
+   * Replaces the itineraries of up to two flights in {@code routes} with every such itinerary,
+   * which do not need the queue.
+   */
+  private void addShortRoutes(int originCity, int destinationCity, int maxHops, List<Route> routes) {
+    int shortHops = Math.min(maxHops, 2);
+    routes.removeIf(route -> route.size() <= shortHops);
+    for (Route route : candidates(originCity, destinationCity, shortHops == 1)) {
+      // like the search, never pass through the origin again
+      if (route.size() == 1 || route.flight(0).dest != originCity) {
+        routes.add(route);
+      }
+    }
+  }
+
+  /**
+   * Every direct flight from {@code originCity} to {@code destinationCity} and, unless
+   * {@code directFlight}, every one-stop itinerary between them, in no particular order.
+   */
+  public List<Route> candidates(String originCity, String destinationCity, boolean directFlight) {
+    NameDictionary names = NameDictionary.cities();
+    return candidates(names.lookup(originCity), names.lookup(destinationCity), directFlight);
+  }
+
+  public List<Route> candidates(int originCity, int destinationCity, boolean directFlight) {
+    List<Route> routes = new ArrayList<>();
+    for (Query.Flight flight1 : index.departures(originCity)) {
+      addCandidates(flight1, destinationCity, directFlight, routes);
+    }
+    return routes;
+  }
+
+  /**
+   * Adds the candidates that start with {@code flight1}: the flight itself if it reaches
+   * {@code destinationCity}, otherwise, unless {@code directFlight}, every connection from it.
+   */
+  public void addCandidates(Query.Flight flight1, int destinationCity, boolean directFlight,
+                            List<Route> routes) {
+    if (!usable.test(flight1)) {
+      return;
+    }
+    if (flight1.dest == destinationCity) {
+      routes.add(new Route(flight1));
+    } else if (!directFlight) {
+      for (Query.Flight flight2 : index.departures(flight1.dest)) {
+        if (flight2.dest == destinationCity && usable.test(flight2)) {
+          routes.add(new Route(flight1, flight2));
+        }
+      }
+    }
+  }
+
+  private static final int UNREACHABLE = -1;
+
+  /**
+   * Like {@link #addCandidates}, but adds the {@link ItineraryKeys} of the candidates instead of
+   * building routes.
+   */
+  public void addCandidateKeys(Query.Flight flight1, int destinationCity, boolean directFlight,
+                               ItineraryKeys.Buffer keys) {
+    if (!usable.test(flight1)) {
+      return;
+    }
+    if (flight1.dest == destinationCity) {
+      keys.add(ItineraryKeys.key(flight1.time, flight1.fid, 0));
+    } else if (!directFlight) {
+      for (Query.Flight flight2 : index.departures(flight1.dest)) {
+        if (flight2.dest == destinationCity && usable.test(flight2)) {
+          keys.add(ItineraryKeys.key(flight1.time + flight2.time, flight1.fid, flight2.fid));
+        }
+      }
+    }
+  }
+
+  /**
+   * Shortest flight time from every city to {@code destinationCity}, ignoring the hop limit,
+   * indexed by city id. Cities that cannot reach it are {@link #UNREACHABLE}.
+   */
+  private int[] remainingTimes(int destinationCity) {
+    int[] remaining = new int[index.cities()];
+    Arrays.fill(remaining, UNREACHABLE);
+    if (destinationCity >= remaining.length) {
+      return remaining;
+    }
+    // queue entries are time << 32 | city, so they order by time
+    PriorityQueue<Long> queue = new PriorityQueue<>();
+    queue.add((long) destinationCity);
+    while (!queue.isEmpty()) {
+      long entry = queue.poll();
+      int city = (int) entry;
+      int time = (int) (entry >>> 32);
+      if (remaining[city] != UNREACHABLE) {
+        continue;
+      }
+      remaining[city] = time;
+      for (Query.Flight flight : index.arrivals(city)) {
+        if (flight.origin != NameDictionary.NULL_ID && remaining[flight.origin] == UNREACHABLE) {
+          queue.add((long) (time + flight.time) << 32 | flight.origin);
+        }
+      }
+    }
+    return remaining;
+  }
+
+  /**
+   * Fewest flights from every city to {@code destinationCity}, indexed by city id. Cities that
+   * cannot reach it are {@link #UNREACHABLE}.
+   */
+  private int[] minimumHops(int destinationCity) {
+    int[] hops = new int[index.cities()];
+    Arrays.fill(hops, UNREACHABLE);
+    if (destinationCity >= hops.length) {
+      return hops;
+    }
+    int[] queue = new int[hops.length];
+    int head = 0;
+    int tail = 0;
+    hops[destinationCity] = 0;
+    queue[tail++] = destinationCity;
+    while (head < tail) {
+      int city = queue[head++];
+      for (Query.Flight flight : index.arrivals(city)) {
+        if (flight.origin != NameDictionary.NULL_ID && hops[flight.origin] == UNREACHABLE) {
+          hops[flight.origin] = hops[city] + 1;
+          queue[tail++] = flight.origin;
+        }
+      }
+    }
+    return hops;
+  }
+
+  private static int bound(int[] remaining, int city) {
+    return city < 0 || city >= remaining.length ? UNREACHABLE : remaining[city];
+  }
+
+  /**
+   * A partial itinerary ending at {@code city}, linked to the label it extends.
+   */
+  private static final class Label implements Comparable<Label> {
+    private final Label previous;
+    private final Query.Flight flight;
+    private final int city;
+    private final int hops;
+    private final int time;
+    private final int estimate;
+
+    Label(Label previous, Query.Flight flight, int city, int hops, int time, int estimate) {
+      this.previous = previous;
+      this.flight = flight;
+      this.city = city;
+      this.hops = hops;
+      this.time = time;
+      this.estimate = estimate;
+    }
+
+    boolean visits(int other) {
+      for (Label label = this; label != null; label = label.previous) {
+        if (label.city == other) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    Route toRoute() {
+      Query.Flight[] flights = new Query.Flight[hops];
+      Label label = this;
+      for (int i = hops - 1; i >= 0; i--) {
+        flights[i] = label.flight;
+        label = label.previous;
+      }
+      return new Route(flights);
+    }
+
+    @Override
+    public int compareTo(Label other) {
+      return Integer.compare(estimate, other.estimate);
+    }
+  }
+}
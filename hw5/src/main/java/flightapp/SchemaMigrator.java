@@ -0,0 +1,140 @@
+package flightapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.*;
+import java.util.*;
+import java.util.regex.*;
+
+import org.apache.ibatis.jdbc.ScriptRunner;
+
+/**
+ * Applies the versioned scripts in the migrations folder to a running database.
+ *
+ * Scripts are named V[version]__[description].sql and are applied in version order. Every
+ * applied version is recorded in the SchemaVersions table, so running the migrator again only
+ * applies the scripts that are new since the last run.
+ */
+public class SchemaMigrator {
+  private static final String MIGRATIONS_DIR = "migrations";
+  private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+
+  // version bookkeeping table
+  private static final String CREATE_VERSION_TABLE = "IF OBJECT_ID('SchemaVersions') IS NULL " +
+          "CREATE TABLE SchemaVersions (Version INT PRIMARY KEY, Description VARCHAR(100), " +
+          "AppliedAt DATETIME DEFAULT GETDATE())";
+
+  private static final String SELECT_VERSIONS = "SELECT Version FROM SchemaVersions";
+
+  private final Connection conn;
+  private final File dir;
+
+  public SchemaMigrator(Connection conn) {
+    this(conn, new File(MIGRATIONS_DIR));
+  }
+
+  public SchemaMigrator(Connection conn, File dir) {
+    this.conn = conn;
+    this.dir = dir;
+  }
+
+  /**
+   * Applies every script whose version has not been recorded yet.
+   *
+   * @return the versions applied by this call, in order
+   */
+  public List<Integer> migrate() throws SQLException, IOException {
+    try (PreparedStatement create = conn.prepareStatement(CREATE_VERSION_TABLE)) {
+      create.executeUpdate();
+    }
+    Set<Integer> applied = appliedVersions();
+    List<Integer> versions = new ArrayList<>();
+    for (Map.Entry<Integer, File> script : scripts().entrySet()) {
+      if (applied.contains(script.getKey())) {
+        continue;
+      }
+      apply(script.getKey(), script.getValue());
+      versions.add(script.getKey());
+    }
+    return versions;
+  }
+
+  /**
+   * Versions already recorded in SchemaVersions.
+   */
+  public Set<Integer> appliedVersions() throws SQLException {
+    Set<Integer> versions = new TreeSet<>();
+    try (PreparedStatement select = conn.prepareStatement(SELECT_VERSIONS);
+         ResultSet rs = select.executeQuery()) {
+      while (rs.next()) {
+        versions.add(rs.getInt("Version"));
+      }
+    }
+    return versions;
+  }
+
+  /**
+   * Scripts in the migrations folder keyed by version.
+   */
+  private SortedMap<Integer, File> scripts() {
+    SortedMap<Integer, File> scripts = new TreeMap<>();
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return scripts;
+    }
+    for (File file : files) {
+      Matcher m = SCRIPT_NAME.matcher(file.getName());
+      if (!m.matches()) {
+        continue;
+      }
+      File previous = scripts.put(Integer.parseInt(m.group(1)), file);
+      if (previous != null) {
+        throw new IllegalStateException("Duplicate migration version in " + previous.getName()
+                + " and " + file.getName());
+      }
+    }
+    return scripts;
+  }
+
+  /**
+   * Runs one script and records its version in the same transaction.
+   */
+  private void apply(int version, File file) throws SQLException, IOException {
+    Matcher m = SCRIPT_NAME.matcher(file.getName());
+    m.matches();
+    String description = m.group(2).replace('_', ' ');
+    String script = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)
+            + "\nINSERT INTO SchemaVersions (Version, Description) VALUES (" + version + ", '"
+            + description + "');\n";
+
+    ScriptRunner scriptRunner = new ScriptRunner(conn);
+    scriptRunner.setStopOnError(true);
+    scriptRunner.setAutoCommit(false);
+    scriptRunner.setLogWriter(null);
+    scriptRunner.setErrorLogWriter(null);
+    try {
+      scriptRunner.runScript(new StringReader(script));
+    } finally {
+      conn.setAutoCommit(true);
+    }
+  }
+
+  /**
+   * Migrates the database configured in dbconn.properties.
+   */
+  public static void main(String[] args) throws SQLException, IOException {
+    Connection conn = QueryAbstract.openConnectionFromDbConn();
+    try {
+      List<Integer> versions = new SchemaMigrator(conn).migrate();
+      if (versions.isEmpty()) {
+        System.out.println("Schema is up to date");
+      }
+      for (int version : versions) {
+        System.out.println("Applied migration V" + version);
+      }
+    } finally {
+      conn.close();
+    }
+  }
+}
@@ -0,0 +1,290 @@
+package flightapp;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Result cache shared by all sessions for the search command.
+ *
+ * Entries are keyed by (origin, destination, direct, day), with cities as
+ * {@link NameDictionary#cities()} ids, so differently cased names share entries, and remember the
+ * number of
+ * itineraries they were computed for. An entry computed for k itineraries answers every search
+ * asking for k or fewer, and any search at all once it holds every matching flight. The least
+ * recently used entries are evicted once the cache holds more than its capacity.
+ *
+ * Concurrent misses for the same search are coalesced: one session runs the database queries while
+ * the others wait for its result, see {@link #getOrLoad}. Loads that started before the last
+ * {@link #invalidateAll()} are neither cached nor shared with searches that started after it.
+ *
+ * Flights is treated as static between changes; {@link FlightsVersion} calls {@link #invalidateAll()}
+ * once it sees that Flights or Connections changed, from any process.
+ */
+public class SearchCache {
+  private static final int DEFAULT_CAPACITY = Integer.getInteger("flightapp.searchCacheSize", 1000);
+  private static final SearchCache SHARED = new SearchCache(DEFAULT_CAPACITY);
+
+  private final Map<Key, Entry> entries;
+  private final SingleFlight<Request, Entry> loads = new SingleFlight<>();
+  // bumped by invalidateAll, so loads that started before it do not cache their stale results
+  private long generation;
+
+  public SearchCache(int capacity) {
+    this.entries = new LinkedHashMap<Key, SearchCache.Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, SearchCache.Entry> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * The cache used by every Query in this JVM.
+   */
+  public static SearchCache shared() {
+    return SHARED;
+  }
+
+  /**
+   * Returns an entry that can answer a search for {@code numberOfItineraries}, or null on a miss.
+   */
+  public synchronized Entry get(String originCity, String destinationCity, boolean directFlight,
+                                int dayOfMonth, int numberOfItineraries) {
+    Key key = key(originCity, destinationCity, directFlight, dayOfMonth);
+    Entry entry = key == null ? null : entries.get(key);
+    if (entry == null || !entry.answers(numberOfItineraries)) {
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * Caches the result of a search. Searches between cities no flight uses are not cached.
+   */
+  public synchronized void put(String originCity, String destinationCity, boolean directFlight,
+                               int dayOfMonth, Entry entry) {
+    put(generation, originCity, destinationCity, directFlight, dayOfMonth, entry);
+  }
+
+  /**
+   * Caches the result of a load that started in {@code loadGeneration}, unless the cache has been
+   * invalidated since.
+   */
+  private synchronized void put(long loadGeneration, String originCity, String destinationCity,
+                                boolean directFlight, int dayOfMonth, Entry entry) {
+    if (loadGeneration != generation) {
+      return;
+    }
+    Key key = key(originCity, destinationCity, directFlight, dayOfMonth);
+    if (key == null) {
+      return;
+    }
+    Entry previous = entries.get(key);
+    // keep whichever entry covers more searches
+    if (previous == null || !previous.answers(entry.numberOfItineraries)) {
+      entries.put(key, entry);
+    }
+  }
+
+  /**
+   * Returns a cached entry that can answer the search, or loads one. Identical searches that miss
+   * at the same time share a single load, whose result is cached.
+   */
+  public Entry getOrLoad(String originCity, String destinationCity, boolean directFlight,
+                         int dayOfMonth, int numberOfItineraries,
+                         SingleFlight.Loader<Entry> loader) throws SQLException {
+    long loadGeneration;
+    synchronized (this) {
+      Entry entry = get(originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries);
+      if (entry != null) {
+        return entry;
+      }
+      loadGeneration = generation;
+    }
+    // a search that starts after an invalidation does not wait for a load that started before it
+    Request request = new Request(originCity, destinationCity, directFlight, dayOfMonth,
+            numberOfItineraries, loadGeneration);
+    return loads.execute(request, () -> {
+      Entry loaded = loader.load();
+      put(loadGeneration, originCity, destinationCity, directFlight, dayOfMonth, loaded);
+      return loaded;
+    });
+  }
+
+  /**
+   * Drops every entry, and the results of loads still running, called when the Flights table
+   * changes.
+   */
+  public synchronized void invalidateAll() {
+    entries.clear();
+    generation++;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  // unknown city names are not added to the dictionary, so arbitrary input cannot grow it
+  private static Key key(String originCity, String destinationCity, boolean directFlight, int dayOfMonth) {
+    NameDictionary names = NameDictionary.cities();
+    int origin = names.lookup(originCity);
+    int destination = names.lookup(destinationCity);
+    if (origin == NameDictionary.NULL_ID || destination == NameDictionary.NULL_ID) {
+      return null;
+    }
+    return new Key(origin, destination, directFlight, dayOfMonth);
+  }
+
+  private static final class Key {
+    private final int originCity;
+    private final int destinationCity;
+    private final boolean directFlight;
+    private final int dayOfMonth;
+
+    Key(int originCity, int destinationCity, boolean directFlight, int dayOfMonth) {
+      this.originCity = originCity;
+      this.destinationCity = destinationCity;
+      this.directFlight = directFlight;
+      this.dayOfMonth = dayOfMonth;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return directFlight == other.directFlight && dayOfMonth == other.dayOfMonth
+              && originCity == other.originCity && destinationCity == other.destinationCity;
+    }
+
+    @Override
+    public int hashCode() {
+      return ((originCity * 31 + destinationCity) * 31 + dayOfMonth) * 2 + (directFlight ? 1 : 0);
+    }
+  }
+
+  /**
+   * A search as typed, used to coalesce loads. Unlike {@link Key}, it works for cities not yet in
+   * the dictionary and includes the number of itineraries and the generation of the cache.
+   */
+  private static final class Request {
+    private final String originCity;
+    private final String destinationCity;
+    private final boolean directFlight;
+    private final int dayOfMonth;
+    private final int numberOfItineraries;
+    private final long generation;
+
+    Request(String originCity, String destinationCity, boolean directFlight, int dayOfMonth,
+            int numberOfItineraries, long generation) {
+      this.originCity = originCity;
+      this.destinationCity = destinationCity;
+      this.directFlight = directFlight;
+      this.dayOfMonth = dayOfMonth;
+      this.numberOfItineraries = numberOfItineraries;
+      this.generation = generation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Request)) {
+        return false;
+      }
+      Request other = (Request) o;
+      return directFlight == other.directFlight && dayOfMonth == other.dayOfMonth
+              && numberOfItineraries == other.numberOfItineraries && generation == other.generation
+              && originCity.equals(other.originCity) && destinationCity.equals(other.destinationCity);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries,
+              generation);
+    }
+  }
+
+  /**
+   * Ranked direct flights and one-stop itineraries for one search, as returned by the database.
+   */
+  public static final class Entry {
+    private final int numberOfItineraries;
+    private final List<Query.Flight> directs;
+    private final List<Query.Itinerary> indirects;
+    private final boolean directFlight;
+    private final boolean complete;
+
+    /**
+     * @param numberOfItineraries the number of itineraries the search asked for
+     * @param directs             direct flights, at most {@code numberOfItineraries}
+     * @param indirects           one-stop itineraries filling the remaining slots
+     * @param directFlight        whether indirect itineraries were excluded
+     */
+    public Entry(int numberOfItineraries, List<Query.Flight> directs, List<Query.Itinerary> indirects,
+                 boolean directFlight) {
+      this.numberOfItineraries = numberOfItineraries;
+      this.directs = Collections.unmodifiableList(new ArrayList<>(directs));
+      this.indirects = Collections.unmodifiableList(new ArrayList<>(indirects));
+      this.directFlight = directFlight;
+      // without any direct flight the search reports no match, whatever k is
+      this.complete = numberOfItineraries > 0 && (directs.isEmpty()
+              || (directs.size() < numberOfItineraries
+              && (directFlight || indirects.size() < numberOfItineraries - directs.size())));
+    }
+
+    boolean answers(int k) {
+      return complete || k <= numberOfItineraries;
+    }
+
+    /**
+     * The unsorted itineraries a search for {@code k} itineraries would have fetched: the first k
+     * direct flights, then the best one-stop itineraries for the slots left over.
+     */
+    public List<Query.Itinerary> itineraries(int k) {
+      List<Query.Itinerary> result = new ArrayList<>();
+      int directCount = Math.min(k, directs.size());
+      for (int i = 0; i < directCount; i++) {
+        result.add(new Query.Itinerary(directs.get(i), null));
+      }
+      int indirectCount = Math.min(k - directCount, indirects.size());
+      for (int i = 0; i < indirectCount; i++) {
+        result.add(indirects.get(i));
+      }
+      return result;
+    }
+
+    /**
+     * Like {@link #itineraries(int)}, as if the database only held the flights accepted by
+     * {@code usable}: the first k usable direct flights, then the best usable one-stop
+     * itineraries for the slots left over, or none at all without a usable direct flight.
+     *
+     * @return the itineraries, or null if this entry holds too few rows to tell, in which case a
+     * search for more itineraries has to be loaded
+     */
+    public List<Query.Itinerary> itineraries(int k, Predicate<Query.Flight> usable) {
+      List<Query.Itinerary> result = new ArrayList<>();
+      for (int i = 0; i < directs.size() && result.size() < k; i++) {
+        if (usable.test(directs.get(i))) {
+          result.add(new Query.Itinerary(directs.get(i), null));
+        }
+      }
+      // the database returned fewer direct flights than asked for only if there are no more
+      boolean allDirects = directs.size() < numberOfItineraries;
+      if (result.size() < k && !allDirects) {
+        return null;
+      }
+      if (result.isEmpty() || directFlight || result.size() == k) {
+        return result;
+      }
+      for (int i = 0; i < indirects.size() && result.size() < k; i++) {
+        Query.Itinerary itinerary = indirects.get(i);
+        if (usable.test(itinerary.flight1) && usable.test(itinerary.flight2)) {
+          result.add(itinerary);
+        }
+      }
+      boolean allIndirects = indirects.size() < numberOfItineraries - directs.size();
+      return result.size() == k || allIndirects ? result : null;
+    }
+  }
+}
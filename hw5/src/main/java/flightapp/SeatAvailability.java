@@ -0,0 +1,134 @@
+package flightapp;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * In-memory bitmap of sold-out flights, used to filter search results without a database round
+ * trip.
+ *
+ * The sold-out flights of a day are read from the Capacity table the first time that day is
+ * searched. After that, book and cancel in this JVM keep the bitmap current. Bits are indexed by
+ * fid, which is unique across days.
+ *
+ * When several nodes share the database, {@link #connect} the bitmap to an {@link InvalidationBus}:
+ * local changes are published on it, and changes from other nodes arrive through it.
+ */
+public class SeatAvailability implements InvalidationBus.Listener {
+  private static final SeatAvailability SHARED = new SeatAvailability();
+
+  /**
+   * Loads the fids of a day's flights that have no seats left.
+   */
+  public interface Loader {
+    List<Integer> soldOut(int dayOfMonth) throws SQLException;
+  }
+
+  private final BitSet soldOut = new BitSet();
+  private final BitSet loadedDays = new BitSet();
+  // day loads reading the database right now
+  private int loading;
+  // fid and capacity of the changes applied while any day was loading, oldest first; a load
+  // re-applies the ones made since it started, which may be newer than what it read
+  private final List<int[]> changesDuringLoads = new ArrayList<>();
+  // resets so far; a load that overlaps one is dropped
+  private long resets;
+  private volatile InvalidationBus bus;
+
+  /**
+   * The bitmap shared by every Query in this JVM.
+   */
+  public static SeatAvailability shared() {
+    return SHARED;
+  }
+
+  /**
+   * Makes sure the sold-out flights of a day are known, reading them on first use.
+   */
+  public void load(int dayOfMonth, Loader loader) throws SQLException {
+    long resetsBefore;
+    int firstChange;
+    synchronized (this) {
+      if (loadedDays.get(dayOfMonth)) {
+        return;
+      }
+      resetsBefore = resets;
+      firstChange = changesDuringLoads.size();
+      loading++;
+    }
+    List<Integer> fids = null;
+    try {
+      fids = loader.soldOut(dayOfMonth);
+    } finally {
+      synchronized (this) {
+        loading--;
+        // after a reset, what was read may predate changes that were dropped; read again next time
+        if (fids != null && !loadedDays.get(dayOfMonth) && resets == resetsBefore) {
+          for (int fid : fids) {
+            soldOut.set(fid);
+          }
+          for (int i = firstChange; i < changesDuringLoads.size(); i++) {
+            int[] change = changesDuringLoads.get(i);
+            soldOut.set(change[0], change[1] <= 0);
+          }
+          loadedDays.set(dayOfMonth);
+        }
+        if (loading == 0) {
+          changesDuringLoads.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * Publishes local changes on {@code bus} and applies the changes it carries from other nodes.
+   */
+  public void connect(InvalidationBus bus) {
+    this.bus = bus;
+    bus.subscribe(this);
+  }
+
+  /**
+   * Whether the flight still has seats, as far as this JVM knows.
+   */
+  public synchronized boolean isAvailable(int fid) {
+    return !soldOut.get(fid);
+  }
+
+  /**
+   * Records the remaining seats of a flight after a committed booking or cancellation, and
+   * publishes them to the other nodes.
+   */
+  public void update(int fid, int capacity) {
+    capacityChanged(fid, capacity);
+    InvalidationBus bus = this.bus;
+    if (bus != null) {
+      bus.publish(fid, capacity);
+    }
+  }
+
+  /**
+   * Records the remaining seats of a flight without publishing them.
+   */
+  @Override
+  public synchronized void capacityChanged(int fid, int capacity) {
+    soldOut.set(fid, capacity <= 0);
+    if (loading > 0) {
+      changesDuringLoads.add(new int[]{fid, capacity});
+    }
+  }
+
+  @Override
+  public void reset() {
+    invalidateAll();
+  }
+
+  /**
+   * Forgets every loaded day, called when capacities change outside this JVM.
+   */
+  public synchronized void invalidateAll() {
+    soldOut.clear();
+    loadedDays.clear();
+    resets++;
+  }
+}
@@ -0,0 +1,55 @@
+package flightapp;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+/**
+ * Creates the executors that run user sessions.
+ *
+ * With -Dflightapp.virtualThreads=true on Java 21 or later, every session gets its own virtual
+ * thread, so thousands of sessions blocked on JDBC cost a few carrier threads. The factory is
+ * looked up reflectively because the code is built for Java 11; on older runtimes, or when the
+ * option is off, sessions share a fixed pool of platform threads.
+ */
+public class SessionExecutors {
+  private static final boolean VIRTUAL_THREADS = Boolean.getBoolean("flightapp.virtualThreads");
+
+  /**
+   * Whether {@link #newExecutor} returns virtual-thread executors.
+   */
+  public static boolean usesVirtualThreads() {
+    return VIRTUAL_THREADS && virtualThreadFactory() != null;
+  }
+
+  /**
+   * Returns an executor for sessions: one virtual thread per task if enabled and available,
+   * otherwise {@code threads} platform threads.
+   *
+   * @param daemon whether platform threads should not keep the JVM alive; virtual threads never do
+   */
+  public static ExecutorService newExecutor(int threads, String name, boolean daemon) {
+    if (VIRTUAL_THREADS) {
+      Method factory = virtualThreadFactory();
+      if (factory != null) {
+        try {
+          return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+          throw new IllegalStateException("Cannot create a virtual thread executor", e);
+        }
+      }
+    }
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(daemon);
+      return thread;
+    });
+  }
+
+  private static Method virtualThreadFactory() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
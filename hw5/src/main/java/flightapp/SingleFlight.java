@@ -0,0 +1,52 @@
+package flightapp;
+
+import java.sql.SQLException;
+import java.util.concurrent.*;
+
+/**
+ * Runs at most one load per key at a time; callers asking for a key that is already loading wait
+ * for that load and share its result.
+ *
+ * If the shared load fails, each waiter runs the load itself, so one session's broken connection
+ * does not fail the others.
+ */
+public class SingleFlight<K, V> {
+  /**
+   * Computes a value, typically with a database round trip.
+   */
+  public interface Loader<V> {
+    V load() throws SQLException;
+  }
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  public V execute(K key, Loader<V> loader) throws SQLException {
+    CompletableFuture<V> mine = new CompletableFuture<>();
+    CompletableFuture<V> leader = inFlight.putIfAbsent(key, mine);
+    if (leader != null) {
+      try {
+        return leader.join();
+      } catch (CompletionException | CancellationException e) {
+        return loader.load();
+      }
+    }
+    try {
+      V value = loader.load();
+      mine.complete(value);
+      return value;
+    } catch (Throwable e) {
+      // also on errors, or the waiters would wait forever
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  /**
+   * Number of keys loading right now.
+   */
+  public int inFlight() {
+    return inFlight.size();
+  }
+}
@@ -0,0 +1,121 @@
+package flightapp;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Aggregates JDBC statement executions by SQL text: executions, total and longest time, and rows
+ * read. Executions slower than flightapp.slowQueryMillis (default 100) are logged to standard
+ * error with their bound parameters.
+ *
+ * Connections opened by {@link QueryAbstract} are wrapped in a {@link ProfilingConnection} when
+ * -Dflightapp.profile=true. The statements and result sets they hand out are plain decorators.
+ * Recording costs a map lookup and a few LongAdder updates per execution, and one field
+ * increment per row, so it can stay on in production.
+ */
+public class StatementProfiler {
+  private static final boolean ENABLED = Boolean.getBoolean("flightapp.profile");
+  private static final StatementProfiler SHARED =
+          new StatementProfiler(TimeUnit.MILLISECONDS.toNanos(Long.getLong("flightapp.slowQueryMillis", 100)));
+
+  private final long slowNanos;
+  private final ConcurrentMap<String, Stats> statements = new ConcurrentHashMap<>();
+
+  /**
+   * @param slowNanos executions taking longer than this are logged
+   */
+  public StatementProfiler(long slowNanos) {
+    this.slowNanos = slowNanos;
+  }
+
+  /**
+   * The profiler of connections opened by {@link QueryAbstract}, or null if profiling is off.
+   */
+  public static StatementProfiler shared() {
+    return ENABLED ? SHARED : null;
+  }
+
+  /**
+   * Records one execution of {@code sql}.
+   *
+   * @param parameters bound parameters by index, logged if the execution was slow
+   */
+  public void record(String sql, long nanos, Object[] parameters) {
+    Stats stats = stats(sql);
+    stats.executions.increment();
+    stats.totalNanos.add(nanos);
+    stats.maxNanos.accumulateAndGet(nanos, Math::max);
+    if (nanos > slowNanos) {
+      System.err.println("Slow statement (" + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms): " + sql
+              + " parameters: " + describe(parameters));
+    }
+  }
+
+  /**
+   * Wraps a result set of {@code sql} so that the rows read from it are counted.
+   */
+  public ResultSet countRows(ResultSet rs, String sql) {
+    return new ProfilingResultSet(rs, stats(sql).rows);
+  }
+
+  /**
+   * Wraps a callable statement so that its executions are recorded like prepared statements'.
+   */
+  public CallableStatement profile(CallableStatement statement, String sql) {
+    return new ProfilingCallableStatement(statement, sql, this);
+  }
+
+  /**
+   * The {@code n} statements with the most total time, one per line: total and longest time,
+   * executions, average time, rows read and the SQL.
+   */
+  public String report(int n) {
+    List<Map.Entry<String, Stats>> entries = new ArrayList<>(statements.entrySet());
+    entries.sort(Comparator.comparingLong((Map.Entry<String, Stats> entry) -> entry.getValue().totalNanos.sum())
+            .reversed());
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%10s %10s %10s %10s %10s  %s%n", "total ms", "max ms", "count", "avg ms",
+            "rows", "sql"));
+    for (Map.Entry<String, Stats> entry : entries.subList(0, Math.min(n, entries.size()))) {
+      Stats stats = entry.getValue();
+      long count = stats.executions.sum();
+      long total = stats.totalNanos.sum();
+      sb.append(String.format("%10.1f %10.1f %10d %10.2f %10d  %s%n", total / 1e6, stats.maxNanos.get() / 1e6,
+              count, count == 0 ? 0 : total / 1e6 / count, stats.rows.sum(), entry.getKey()));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Forgets every statistic.
+   */
+  public void reset() {
+    statements.clear();
+  }
+
+  private Stats stats(String sql) {
+    Stats stats = statements.get(sql);
+    return stats != null ? stats : statements.computeIfAbsent(sql, key -> new Stats());
+  }
+
+  private static String describe(Object[] parameters) {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 1; i < parameters.length; i++) {
+      if (i > 1) {
+        sb.append(", ");
+      }
+      Object value = parameters[i];
+      sb.append(value instanceof byte[] ? "<" + ((byte[]) value).length + " bytes>" : String.valueOf(value));
+    }
+    return sb.append(']').toString();
+  }
+
+  private static final class Stats {
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder rows = new LongAdder();
+  }
+}
@@ -0,0 +1,246 @@
+package flightapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Creates users in bulk, e.g. to migrate or seed accounts.
+ *
+ * Input has one user per line: username, password and initial amount, separated by whitespace,
+ * with the same quoting as REPL commands. Users are imported in chunks. For each chunk, existing
+ * names are found with a few set-based queries, and the salted password hashes of the others,
+ * which dominate the cost, are computed in parallel on all cores. Only then does a transaction
+ * check the names again, under the locks that keep them free, and insert the new rows with one
+ * JDBC batch, so no locks are held while hashing. Lines create users under the same rules as the
+ * create command; invalid lines and names that already exist are skipped and counted.
+ */
+public class UserImporter {
+  // users per transaction
+  private static final int CHUNK_SIZE = Integer.getInteger("flightapp.importChunkSize", 1000);
+  // names per existence query; unused parameters are NULL, which matches no row
+  private static final int IN_SIZE = 100;
+
+  private static final String INSERT_USER = "INSERT INTO Users (UserName,Password,Balance,Salt) VALUES (?,?,?,?)";
+
+  private static final String EXISTING_USERS;
+  static {
+    StringBuilder sql = new StringBuilder("SELECT UserName FROM Users WHERE UserName IN (?");
+    for (int i = 1; i < IN_SIZE; i++) {
+      sql.append(",?");
+    }
+    EXISTING_USERS = sql.append(')').toString();
+  }
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final Connection conn;
+  private final int chunkSize;
+  private final PreparedStatement insertUserStatement;
+  private final PreparedStatement existingUsersStatement;
+
+  public UserImporter(Connection conn) throws SQLException {
+    this(conn, CHUNK_SIZE);
+  }
+
+  /**
+   * @param chunkSize users per transaction
+   */
+  public UserImporter(Connection conn, int chunkSize) throws SQLException {
+    this.conn = conn;
+    this.chunkSize = chunkSize;
+    insertUserStatement = conn.prepareStatement(INSERT_USER);
+    existingUsersStatement = conn.prepareStatement(EXISTING_USERS);
+  }
+
+  /**
+   * Counts of an import.
+   */
+  public static final class Result {
+    private int created;
+    private int existing;
+    private int invalid;
+
+    public int created() {
+      return created;
+    }
+
+    /**
+     * Users skipped because the name was taken, before or earlier in the input.
+     */
+    public int existing() {
+      return existing;
+    }
+
+    /**
+     * Lines skipped because they are not a valid user.
+     */
+    public int invalid() {
+      return invalid;
+    }
+
+    @Override
+    public String toString() {
+      return "Created " + created + " user(s), skipped " + existing + " existing and " + invalid
+              + " invalid";
+    }
+  }
+
+  public Result importUsers(Path file) throws IOException, SQLException {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return importUsers(reader);
+    }
+  }
+
+  public Result importUsers(Reader input) throws IOException, SQLException {
+    BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input
+            : new BufferedReader(input);
+    Result result = new Result();
+    // names seen in this input, so a repeated name only creates one user
+    Set<String> seen = new HashSet<>();
+    List<NewUser> chunk = new ArrayList<>(chunkSize);
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      Command command = Command.parse(line);
+      if (command.type() == Command.Type.EMPTY) {
+        continue;
+      }
+      NewUser user = NewUser.parse(command);
+      if (user == null) {
+        result.invalid++;
+      } else if (!seen.add(user.userName)) {
+        result.existing++;
+      } else {
+        chunk.add(user);
+        if (chunk.size() == chunkSize) {
+          importChunk(chunk, result);
+          chunk.clear();
+        }
+      }
+    }
+    if (!chunk.isEmpty()) {
+      importChunk(chunk, result);
+    }
+    return result;
+  }
+
+  private void importChunk(List<NewUser> chunk, Result result) throws SQLException {
+    // hash outside the transaction; names taken in between are dropped again below
+    List<NewUser> candidates = withoutExisting(chunk, result);
+    candidates.parallelStream().forEach(NewUser::hash);
+    conn.setAutoCommit(false);
+    try {
+      List<NewUser> created = withoutExisting(candidates, result);
+      for (NewUser user : created) {
+        insertUserStatement.setString(1, user.userName);
+        insertUserStatement.setBytes(2, user.hash);
+        insertUserStatement.setInt(3, user.initAmount);
+        insertUserStatement.setBytes(4, user.salt);
+        insertUserStatement.addBatch();
+      }
+      insertUserStatement.executeBatch();
+      conn.commit();
+      result.created += created.size();
+    } catch (SQLException e) {
+      conn.rollback();
+      throw e;
+    } finally {
+      insertUserStatement.clearBatch();
+      conn.setAutoCommit(true);
+    }
+  }
+
+  /**
+   * The users whose names are not taken yet, counting the others as existing.
+   */
+  private List<NewUser> withoutExisting(List<NewUser> users, Result result) throws SQLException {
+    Set<String> existing = existingUsers(users);
+    List<NewUser> free = new ArrayList<>(users.size());
+    for (NewUser user : users) {
+      if (existing.contains(user.userName)) {
+        result.existing++;
+      } else {
+        free.add(user);
+      }
+    }
+    return free;
+  }
+
+  /**
+   * Names of the chunk that are already taken, found {@link #IN_SIZE} names per query.
+   */
+  private Set<String> existingUsers(List<NewUser> chunk) throws SQLException {
+    Set<String> existing = new HashSet<>();
+    for (int from = 0; from < chunk.size(); from += IN_SIZE) {
+      existingUsersStatement.clearParameters();
+      for (int i = 0; i < IN_SIZE; i++) {
+        if (from + i < chunk.size()) {
+          existingUsersStatement.setString(i + 1, chunk.get(from + i).userName);
+        } else {
+          existingUsersStatement.setNull(i + 1, Types.VARCHAR);
+        }
+      }
+      try (ResultSet rs = existingUsersStatement.executeQuery()) {
+        while (rs.next()) {
+          existing.add(rs.getString("UserName").toLowerCase());
+        }
+      }
+    }
+    return existing;
+  }
+
+  private static final class NewUser {
+    private final String userName;
+    private final String password;
+    private final int initAmount;
+    private byte[] salt;
+    private byte[] hash;
+
+    NewUser(String userName, String password, int initAmount) {
+      this.userName = userName;
+      this.password = password;
+      this.initAmount = initAmount;
+    }
+
+    /**
+     * Parses "username password amount" under the create command's rules, or returns null.
+     */
+    static NewUser parse(Command line) {
+      if (line.size() != 3) {
+        return null;
+      }
+      String userName = line.token(0);
+      String password = line.token(1);
+      int initAmount;
+      try {
+        initAmount = Integer.parseInt(line.token(2));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      if (initAmount < 0 || userName.length() > 20 || password.length() > 20) {
+        return null;
+      }
+      return new NewUser(userName.toLowerCase(), password, initAmount);
+    }
+
+    void hash() {
+      salt = new byte[16];
+      RANDOM.nextBytes(salt);
+      hash = Query.getPassHash(password, salt);
+    }
+  }
+
+  /**
+   * Usage: UserImporter [file], reading standard input without a file.
+   */
+  public static void main(String[] args) throws IOException, SQLException {
+    try (Connection conn = QueryAbstract.openConnectionFromDbConn()) {
+      UserImporter importer = new UserImporter(conn);
+      Result result = args.length >= 1 ? importer.importUsers(Paths.get(args[0]))
+              : importer.importUsers(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+      System.out.println(result);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package flightapp;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds AdmissionController latencies directly, in nanoseconds, to check how limits move.
+ */
+public class AdmissionControllerTest {
+  private static final Command.Type TYPE = Command.Type.SEARCH;
+  private static final long FAST = 1_000;
+  private static final long SLOW = 1_000_000;
+
+  @Test
+  public void shedsCommandsOverTheLimit() {
+    AdmissionController admission = new AdmissionController(2);
+    AdmissionController.Permit first = admission.tryAcquire(TYPE);
+    AdmissionController.Permit second = admission.tryAcquire(TYPE);
+    assertNotNull(first);
+    assertNotNull(second);
+    assertNull(admission.tryAcquire(TYPE));
+    // other types have limits of their own
+    assertNotNull(admission.tryAcquire(Command.Type.BOOK));
+
+    first.release(FAST);
+    assertNotNull(admission.tryAcquire(TYPE));
+  }
+
+  @Test
+  public void neverLimitsCommandsThatNeedNoDatabase() {
+    AdmissionController admission = new AdmissionController(1);
+    assertEquals(-1, admission.limit(Command.Type.QUIT));
+    for (int i = 0; i < 10; i++) {
+      assertNotNull(admission.tryAcquire(Command.Type.QUIT));
+    }
+  }
+
+  @Test
+  public void raisesTheLimitWhileSaturatedAndFast() {
+    AdmissionController admission = new AdmissionController(4);
+    for (int round = 0; round < 50; round++) {
+      saturate(admission, FAST);
+    }
+    assertTrue(admission.limit(TYPE) > 4);
+  }
+
+  @Test
+  public void cutsTheLimitWhenSaturatedAndSlowingDown() {
+    AdmissionController admission = new AdmissionController(20);
+    for (int round = 0; round < 50; round++) {
+      saturate(admission, FAST);
+    }
+    int before = admission.limit(TYPE);
+    for (int round = 0; round < 5; round++) {
+      saturate(admission, SLOW);
+    }
+    assertTrue(admission.limit(TYPE) < before);
+  }
+
+  @Test
+  public void keepsTheLimitWhenSlowCommandsDoNotSaturateIt() {
+    // cache hits, then database-backed misses, one at a time on an idle server
+    AdmissionController admission = new AdmissionController(8);
+    for (int i = 0; i < 1000; i++) {
+      admission.tryAcquire(TYPE).release(FAST);
+    }
+    for (int i = 0; i < 1000; i++) {
+      admission.tryAcquire(TYPE).release(i % 2 == 0 ? SLOW : FAST);
+    }
+    assertEquals(8, admission.limit(TYPE));
+    List<AdmissionController.Permit> concurrent = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      concurrent.add(admission.tryAcquire(TYPE));
+    }
+    assertFalse(concurrent.contains(null));
+  }
+
+  @Test
+  public void oneSlowerCommandDoesNotCutTheLimit() {
+    AdmissionController admission = new AdmissionController(4);
+    for (int round = 0; round < 20; round++) {
+      saturate(admission, FAST);
+    }
+    int before = admission.limit(TYPE);
+    List<AdmissionController.Permit> permits = acquireAll(admission);
+    permits.get(0).release(5 * FAST);
+    assertTrue(admission.limit(TYPE) >= before);
+  }
+
+  /**
+   * Fills the limit, then releases every command with the given latency.
+   */
+  private static void saturate(AdmissionController admission, long latency) {
+    for (AdmissionController.Permit permit : acquireAll(admission)) {
+      permit.release(latency);
+    }
+  }
+
+  private static List<AdmissionController.Permit> acquireAll(AdmissionController admission) {
+    List<AdmissionController.Permit> permits = new ArrayList<>();
+    for (AdmissionController.Permit permit = admission.tryAcquire(TYPE); permit != null;
+         permit = admission.tryAcquire(TYPE)) {
+      permits.add(permit);
+    }
+    return permits;
+  }
+}
@@ -0,0 +1,95 @@
+package flightapp;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.regex.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks Command.parse against the regular expression the REPL used to split commands with.
+ */
+public class CommandTest {
+  private static final Pattern TOKEN = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
+  /**
+   * The tokens of the former tokenizer.
+   */
+  private static List<String> regexTokens(String command) {
+    List<String> tokens = new ArrayList<>();
+    Matcher matcher = TOKEN.matcher(command.trim());
+    while (matcher.find()) {
+      tokens.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+    }
+    return tokens;
+  }
+
+  private static void assertSameTokens(String command) {
+    assertEquals(command, regexTokens(command), Arrays.asList(Command.parse(command).tokens()));
+  }
+
+  @Test
+  public void quotedCities() {
+    Command command = Command.parse("search \"Seattle WA\" \"Boston MA\" 1 1 10");
+    assertEquals(Command.Type.SEARCH, command.type());
+    assertEquals(Arrays.asList("search", "Seattle WA", "Boston MA", "1", "1", "10"),
+            Arrays.asList(command.tokens()));
+    assertSameTokens("search \"Seattle WA\" \"Boston MA\" 1 1 10");
+  }
+
+  @Test
+  public void emptyQuotes() {
+    assertEquals(Arrays.asList("search", "", "Boston"), Arrays.asList(Command.parse("search \"\" Boston").tokens()));
+    assertSameTokens("search \"\" Boston");
+    assertSameTokens("\"\"\"\"");
+  }
+
+  @Test
+  public void unterminatedQuotes() {
+    assertEquals(Arrays.asList("search", "\"Seattle", "WA"),
+            Arrays.asList(Command.parse("search \"Seattle WA").tokens()));
+    assertSameTokens("search \"Seattle WA");
+    assertSameTokens("search \"Seattle WA\" \"Boston");
+    assertSameTokens("\"");
+  }
+
+  @Test
+  public void quotesInsideTokens() {
+    assertSameTokens("abc\"def ghi\"");
+    assertSameTokens("\"ab\"cd");
+    assertSameTokens("ab\"cd\" \"e f\"");
+  }
+
+  @Test
+  public void extraWhitespace() {
+    assertEquals(Command.Type.EMPTY, Command.parse("").type());
+    assertEquals(Command.Type.EMPTY, Command.parse(" \t\r\n").type());
+    assertSameTokens("  login\t user1 \r\n  pass1  ");
+    assertSameTokens("search  \"Seattle  WA\"   x");
+    assertSameTokens("\u0001 login user1 pass1 \u0001");
+  }
+
+  @Test
+  public void commandTypes() {
+    assertEquals(Command.Type.LOGIN, Command.parse("login a b").type());
+    assertEquals(Command.Type.QUIT, Command.parse("quit").type());
+    // the quoted name is a token of its own, as with the regular expression
+    assertEquals(Command.Type.LOGIN, Command.parse("\"login\"x").type());
+    assertEquals(Command.Type.UNKNOWN, Command.parse("logins").type());
+  }
+
+  @Test
+  public void randomCommands() {
+    char[] alphabet = {'a', 'b', ' ', ' ', '\t', '\n', '"', '"', '\u0001'};
+    Random random = new Random(42);
+    for (int n = 0; n < 100000; n++) {
+      StringBuilder command = new StringBuilder();
+      int length = random.nextInt(12);
+      for (int i = 0; i < length; i++) {
+        command.append(alphabet[random.nextInt(alphabet.length)]);
+      }
+      assertSameTokens(command.toString());
+    }
+  }
+}
@@ -25,17 +25,27 @@ public class FlightServiceTest {
   BufferedWriter report;
 
   /**
-   * Maximum number of concurrent users we will be testing
+   * Maximum number of concurrent users we will be testing, -Dflightapp.test.maxUsers
    */
-  private static final int MAX_USERS = 5;
+  private static final int MAX_USERS = Integer.getInteger("flightapp.test.maxUsers", 5);
   /**
    * Max time in seconds to wait for a response for a user
    */
   private static final int RESPONSE_TIME = 60;
   /**
-   * Thread pool used to run different users
+   * Thread pool used to run different users, on virtual threads with -Dflightapp.virtualThreads
    */
   private static ExecutorService pool;
+  /**
+   * Coordinator shared by every user's Query with -Dflightapp.groupCommit, so that concurrent
+   * users' bookings are committed in groups as in the app
+   */
+  private static BookingCoordinator coordinator;
+  /**
+   * Connections shared by every user, -Dflightapp.poolSize of them, so that many more users than
+   * the database accepts connections can run at once
+   */
+  private static QueryPool queries;
 
   /**
    * Denotes a comment
@@ -91,15 +101,15 @@ public class FlightServiceTest {
   }
 
   /**
-   * Models a single user. Callable from a thread.
+   * Models a single user, a terminal on the shared connections. Callable from a thread.
    */
   static class User implements Callable<String> {
-    private Query q;
+    private QueryPool.Session session;
     private List<String> cmds; // commands that this user will execute
     private List<String> results; // the expected results from those commands
 
     public User(List<String> cmds, List<String> results) throws IOException, SQLException {
-      this.q = createTestQuery();
+      this.session = queries.newSession();
       this.cmds = cmds;
       this.results = results;
     }
@@ -112,15 +122,11 @@ public class FlightServiceTest {
     public String call() {
       StringBuffer sb = new StringBuffer();
       for (String cmd : cmds) {
-        sb.append(FlightService.execute(q, cmd));
+        sb.append(session.execute(cmd));
       }
 
       return sb.toString();
     }
-
-    public void shutdown() throws Exception {
-      this.q.closeConnection();
-    }
   }
 
   /**
@@ -217,7 +223,7 @@ public class FlightServiceTest {
   @BeforeClass
   public static void setup() {
     System.out.println("running setup");
-    pool = Executors.newFixedThreadPool(MAX_USERS);
+    pool = SessionExecutors.newExecutor(MAX_USERS, "flightapp-test-user", false);
     initCredential();
     try {
       Connection conn = serverURL == null ? QueryAbstract.openConnectionFromDbConn()
@@ -226,6 +232,12 @@ public class FlightServiceTest {
       TestUtils.runCreateTables(conn);
       TestUtils.checkTable(conn);
       conn.close();
+      if (Boolean.getBoolean("flightapp.groupCommit")) {
+        coordinator = new BookingCoordinator(serverURL == null ? QueryAbstract.openConnectionFromDbConn()
+            : QueryAbstract.openConnectionFromCredential(serverURL, dbName, adminName, password),
+            Long.getLong("flightapp.groupCommitMillis", 2));
+      }
+      queries = new QueryPool(QueryPool.DEFAULT_SIZE, FlightServiceTest::createTestQuery);
     } catch (Exception e) {
       System.err.println("Failed to drop tables and run createTables.sql");
       e.printStackTrace();
@@ -287,9 +299,22 @@ public class FlightServiceTest {
     TestConnectionWrapper testConn = new TestConnectionWrapper(conn);
     Query query = new Query(testConn);
     testConn.setAllowCreatePreparedStatement(false);
+    query.setBookingCoordinator(coordinator);
     return query;
   }
 
+  @AfterClass
+  public static void teardown() throws SQLException {
+    if (queries != null) {
+      queries.close();
+      queries = null;
+    }
+    if (coordinator != null) {
+      coordinator.close();
+      coordinator = null;
+    }
+  }
+
   @Before
   public void clearDB() throws SQLException, IOException {
     Query query = createTestQuery();
@@ -388,11 +413,6 @@ public class FlightServiceTest {
       System.out.println("failed");
       e.printStackTrace();
       throw e;
-    } finally {
-      // Cleanup
-      for (User u : users) {
-        u.shutdown();
-      }
     }
   }
 
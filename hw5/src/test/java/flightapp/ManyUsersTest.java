@@ -0,0 +1,65 @@
+package flightapp;
+
+import org.junit.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs -Dflightapp.test.maxUsers (default 1000) terminals at once over one QueryPool of
+ * -Dflightapp.poolSize connections. Needs the database in dbconn.properties.
+ */
+public class ManyUsersTest {
+  private static final int USERS = Integer.getInteger("flightapp.test.maxUsers", 1000);
+
+  private static QueryPool pool;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    try (Connection conn = QueryAbstract.openConnectionFromDbConn()) {
+      TestUtils.dropTables(conn);
+      TestUtils.runCreateTables(conn);
+    }
+    pool = QueryPool.fromDbConn();
+  }
+
+  @AfterClass
+  public static void teardown() throws SQLException {
+    pool.close();
+  }
+
+  @Test
+  public void everyTerminalGetsItsOwnAnswers() throws Exception {
+    Query query = new Query(QueryAbstract.openConnectionFromDbConn());
+    try {
+      query.clearTables();
+    } finally {
+      query.closeConnection();
+    }
+    ExecutorService terminals = SessionExecutors.newExecutor(USERS, "flightapp-test-terminal", true);
+    try {
+      List<Future<String>> outputs = new ArrayList<>();
+      for (int i = 0; i < USERS; i++) {
+        String user = "many" + i;
+        QueryPool.Session session = pool.newSession();
+        outputs.add(terminals.submit(() -> session.execute("create " + user + " pw 100")
+                + session.execute("login " + user + " pw")
+                + session.execute("reservations")
+                + session.execute("pay 1")));
+      }
+      for (int i = 0; i < USERS; i++) {
+        String user = "many" + i;
+        assertEquals("Created user " + user + "\n"
+                + "Logged in as " + user + "\n"
+                + "No reservations found\n"
+                + "Cannot find unpaid reservation 1under user: " + user + "\n",
+                outputs.get(i).get(5, TimeUnit.MINUTES));
+      }
+    } finally {
+      terminals.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package flightapp;
+
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs statements of every kind through a ProfilingConnection over a stub connection whose result
+ * sets have three rows each, and reads back the profiler's report.
+ */
+public class ProfilingTest {
+  private static final int ROWS = 3;
+
+  // nothing counts as slow, so nothing is logged
+  private final StatementProfiler profiler = new StatementProfiler(Long.MAX_VALUE);
+  private final Connection conn = new ProfilingConnection(StubJdbc.connection(ROWS), profiler);
+
+  @Test
+  public void recordsPlainStatements() throws SQLException {
+    try (Statement statement = conn.createStatement()) {
+      statement.execute("CREATE TABLE T (x INT)");
+      read(statement.executeQuery("SELECT x FROM T"));
+      read(statement.executeQuery("SELECT x FROM T"));
+      assertEquals(0, statement.executeUpdate("DELETE FROM T"));
+      statement.execute("SELECT 1");
+      read(statement.getResultSet());
+    }
+    try (Statement statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+      statement.addBatch("INSERT INTO T VALUES (1)");
+      statement.addBatch("INSERT INTO T VALUES (2)");
+      statement.executeBatch();
+    }
+
+    Map<String, String[]> report = report();
+    assertEquals(5, report.size());
+    assertExecutions(report, "CREATE TABLE T (x INT)", 1, 0);
+    assertExecutions(report, "SELECT x FROM T", 2, 2 * ROWS);
+    assertExecutions(report, "DELETE FROM T", 1, 0);
+    assertExecutions(report, "SELECT 1", 1, ROWS);
+    assertExecutions(report, "INSERT INTO T VALUES (1); INSERT INTO T VALUES (2)", 1, 0);
+  }
+
+  @Test
+  public void recordsPreparedAndCallableStatements() throws SQLException {
+    String select = "SELECT x FROM T WHERE x = ?";
+    try (PreparedStatement statement = conn.prepareStatement(select)) {
+      for (int x = 0; x < 4; x++) {
+        statement.setInt(1, x);
+        read(statement.executeQuery());
+      }
+      statement.execute();
+      read(statement.getResultSet());
+    }
+    String insert = "INSERT INTO T VALUES (?)";
+    try (PreparedStatement statement = conn.prepareStatement(insert)) {
+      statement.setInt(1, 1);
+      statement.addBatch();
+      statement.setInt(1, 2);
+      statement.addBatch();
+      statement.executeBatch();
+    }
+    String call = "{call P(?)}";
+    try (CallableStatement statement = conn.prepareCall(call)) {
+      statement.setString(1, "a");
+      statement.execute();
+      statement.execute();
+    }
+
+    Map<String, String[]> report = report();
+    assertEquals(3, report.size());
+    assertExecutions(report, select, 5, 5 * ROWS);
+    assertExecutions(report, insert, 1, 0);
+    assertExecutions(report, call, 2, 0);
+  }
+
+  @Test
+  public void reportsTheStatementsWithTheMostTotalTime() throws SQLException {
+    profiler.record("fast", 1_000_000, new Object[1]);
+    profiler.record("slow", 5_000_000, new Object[1]);
+    profiler.record("slow", 3_000_000, new Object[1]);
+    profiler.record("medium", 2_000_000, new Object[1]);
+
+    String[] lines = profiler.report(2).split("\n");
+    assertEquals(3, lines.length);
+    // the report formats numbers in the default locale
+    assertEquals(Arrays.asList(String.format("%.1f", 8.0), String.format("%.1f", 5.0), "2",
+            String.format("%.2f", 4.0), "0", "slow"), Arrays.asList(columns(lines[1])));
+    assertEquals(Arrays.asList(String.format("%.1f", 2.0), String.format("%.1f", 2.0), "1",
+            String.format("%.2f", 2.0), "0", "medium"), Arrays.asList(columns(lines[2])));
+
+    profiler.reset();
+    assertEquals(1, profiler.report(10).split("\n").length);
+  }
+
+  private static void read(ResultSet rs) throws SQLException {
+    while (rs.next()) {
+      rs.getInt(1);
+    }
+    rs.close();
+  }
+
+  /**
+   * The report's columns, by SQL.
+   */
+  private Map<String, String[]> report() {
+    Map<String, String[]> rows = new HashMap<>();
+    String[] lines = profiler.report(Integer.MAX_VALUE).split("\n");
+    for (int i = 1; i < lines.length; i++) {
+      String[] columns = columns(lines[i]);
+      rows.put(columns[5], columns);
+    }
+    return rows;
+  }
+
+  /**
+   * Splits a report line into total ms, max ms, count, avg ms, rows and the SQL.
+   */
+  private static String[] columns(String line) {
+    return line.trim().split("\\s+", 6);
+  }
+
+  private static void assertExecutions(Map<String, String[]> report, String sql, long executions, long rows) {
+    String[] columns = report.get(sql);
+    assertNotNull(sql + " is not in the report", columns);
+    assertEquals(sql, executions, Long.parseLong(columns[2]));
+    assertEquals(sql, rows, Long.parseLong(columns[4]));
+  }
+}
@@ -0,0 +1,84 @@
+package flightapp;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs many terminals over a small QueryPool of stub connections.
+ */
+public class QueryPoolTest {
+  private static final int SIZE = 4;
+  private static final int SESSIONS = 2000;
+
+  @Test(timeout = 30000)
+  public void manySessionsShareTheBoundedConnections() throws Exception {
+    AtomicInteger opened = new AtomicInteger();
+    AtomicInteger busy = new AtomicInteger();
+    AtomicInteger maxBusy = new AtomicInteger();
+    QueryPool pool = new QueryPool(SIZE, () -> {
+      opened.incrementAndGet();
+      return new Query(StubJdbc.connection()) {
+        @Override
+        public String transaction_reservations() {
+          // counts the connections in use at once
+          maxBusy.accumulateAndGet(busy.incrementAndGet(), Math::max);
+          try {
+            Thread.sleep(1);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          busy.decrementAndGet();
+          return super.transaction_reservations();
+        }
+      };
+    });
+    ExecutorService threads = Executors.newFixedThreadPool(64);
+    try {
+      List<Future<String>> outputs = new ArrayList<>();
+      for (int i = 0; i < SESSIONS; i++) {
+        QueryPool.Session session = pool.newSession();
+        outputs.add(threads.submit(() -> session.execute("login user password")
+                + session.execute("reservations") + session.execute("quit")));
+      }
+      for (Future<String> output : outputs) {
+        assertEquals("Login failed\nCannot view reservations, not logged in\nGoodbye\n", output.get());
+      }
+    } finally {
+      threads.shutdownNow();
+      pool.close();
+    }
+    assertEquals(SIZE, opened.get());
+    assertTrue(maxBusy.get() <= SIZE);
+  }
+
+  @Test
+  public void loginsStayWithTheirSessions() throws Exception {
+    QueryPool pool = new QueryPool(2, () -> new Query(StubJdbc.connection()) {
+      @Override
+      public String transaction_login(String username, String password) {
+        // the stub database has no users
+        resumeSession(getSessionId(), username);
+        return "Logged in as " + username + "\n";
+      }
+    });
+    try {
+      QueryPool.Session traveler = pool.newSession();
+      QueryPool.Session other = pool.newSession();
+      assertEquals("Logged in as traveler\n", traveler.execute("login traveler password"));
+      assertEquals("traveler", traveler.getLoginUserName());
+      // whichever connection they get, the other session is logged out and the traveler is not
+      for (int i = 0; i < 3; i++) {
+        assertEquals("Cannot view reservations, not logged in\n", other.execute("reservations"));
+        assertEquals("No reservations found\n", traveler.execute("reservations"));
+      }
+      assertNull(other.getLoginUserName());
+    } finally {
+      pool.close();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package flightapp;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs RateLimiter on a hand-driven clock, with the default limits: search refills 10 tokens per
+ * second up to 20, login 1 per second up to 5.
+ */
+public class RateLimiterTest {
+  private static final long IDLE = TimeUnit.SECONDS.toNanos(300);
+
+  private final AtomicLong now = new AtomicLong(TimeUnit.DAYS.toNanos(1));
+  // the timer never runs on its own in these tests
+  private final RateLimiter limiter = new RateLimiter(now::get, IDLE, TimeUnit.DAYS.toMillis(1));
+
+  @Test
+  public void allowsABurstThenThrottles() {
+    for (int i = 0; i < 20; i++) {
+      assertTrue(limiter.tryAcquire("alice", Command.Type.SEARCH));
+    }
+    assertFalse(limiter.tryAcquire("alice", Command.Type.SEARCH));
+    assertFalse(limiter.tryAcquire("alice", Command.Type.SEARCH));
+    assertEquals(20, limiter.allowed(Command.Type.SEARCH));
+    assertEquals(2, limiter.throttled(Command.Type.SEARCH));
+  }
+
+  @Test
+  public void refillsOneTokenPerInterval() {
+    for (int i = 0; i < 5; i++) {
+      assertTrue(limiter.tryAcquire("alice", Command.Type.LOGIN));
+    }
+    assertFalse(limiter.tryAcquire("alice", Command.Type.LOGIN));
+
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+    assertFalse(limiter.tryAcquire("alice", Command.Type.LOGIN));
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    assertTrue(limiter.tryAcquire("alice", Command.Type.LOGIN));
+    assertFalse(limiter.tryAcquire("alice", Command.Type.LOGIN));
+
+    // idle time beyond a full bucket is not saved up
+    now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+    for (int i = 0; i < 5; i++) {
+      assertTrue(limiter.tryAcquire("alice", Command.Type.LOGIN));
+    }
+    assertFalse(limiter.tryAcquire("alice", Command.Type.LOGIN));
+  }
+
+  @Test
+  public void keepsBudgetsPerClientAndType() {
+    for (int i = 0; i < 5; i++) {
+      assertTrue(limiter.tryAcquire("alice", Command.Type.LOGIN));
+    }
+    assertFalse(limiter.tryAcquire("alice", Command.Type.LOGIN));
+    assertTrue(limiter.tryAcquire("bob", Command.Type.LOGIN));
+    assertTrue(limiter.tryAcquire(42L, Command.Type.LOGIN));
+    assertTrue(limiter.tryAcquire("alice", Command.Type.SEARCH));
+    assertEquals(3, limiter.clients());
+  }
+
+  @Test
+  public void neverLimitsUnlimitedTypes() {
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(limiter.tryAcquire("alice", Command.Type.QUIT));
+    }
+    assertEquals(0, limiter.clients());
+  }
+
+  @Test
+  public void dropsIdleClients() {
+    limiter.tryAcquire("alice", Command.Type.SEARCH);
+    now.addAndGet(IDLE / 2);
+    limiter.tryAcquire("bob", Command.Type.SEARCH);
+    now.addAndGet(IDLE / 2 + 1);
+    limiter.sweep();
+    assertEquals(1, limiter.clients());
+
+    // a dropped client starts over with a full bucket
+    for (int i = 0; i < 20; i++) {
+      assertTrue(limiter.tryAcquire("alice", Command.Type.SEARCH));
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void dropsIdleClientsWithoutFurtherRequests() throws InterruptedException {
+    RateLimiter timed = new RateLimiter(now::get, IDLE, 10);
+    for (long session = 0; session < 100; session++) {
+      timed.tryAcquire(session, Command.Type.LOGIN);
+    }
+    assertEquals(100, timed.clients());
+    now.addAndGet(IDLE + 1);
+    while (timed.clients() > 0) {
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package flightapp;
+
+import org.junit.*;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that ReservationPriceCheck reports exactly the reservations whose price drifted from
+ * Flights. Needs the database in dbconn.properties.
+ */
+public class ReservationPriceCheckTest {
+  private static Connection conn;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    conn = QueryAbstract.openConnectionFromDbConn();
+    TestUtils.dropTables(conn);
+    TestUtils.runCreateTables(conn);
+  }
+
+  @AfterClass
+  public static void teardown() throws SQLException {
+    conn.close();
+  }
+
+  @Test
+  public void reportsReservationsWhosePriceNoLongerMatchesFlights() throws Exception {
+    Query query = new Query(QueryAbstract.openConnectionFromDbConn());
+    try {
+      query.clearTables();
+      query.createCustomer("checker", "checker", 100000);
+      query.login("checker", "checker");
+      query.search("Seattle WA", "Boston MA", true, 1, 1);
+      query.book(0);
+      List<Integer> booked = reservationIds();
+      assertEquals(1, booked.size());
+
+      ReservationPriceCheck check = new ReservationPriceCheck(conn);
+      assertEquals(Collections.emptyList(), check.mismatched());
+
+      try (PreparedStatement drift = conn.prepareStatement("UPDATE Reservations SET Price = Price + 1")) {
+        drift.executeUpdate();
+      }
+      assertEquals(booked, check.mismatched());
+    } finally {
+      query.clearTables();
+      query.closeConnection();
+    }
+  }
+
+  private static List<Integer> reservationIds() throws SQLException {
+    List<Integer> ids = new ArrayList<>();
+    try (PreparedStatement select = conn.prepareStatement("SELECT ReservationID FROM Reservations");
+         ResultSet rs = select.executeQuery()) {
+      while (rs.next()) {
+        ids.add(rs.getInt("ReservationID"));
+      }
+    }
+    return ids;
+  }
+}
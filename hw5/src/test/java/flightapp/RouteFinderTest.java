@@ -0,0 +1,85 @@
+package flightapp;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs RouteFinder on synthetic days where a hub connects to many cities, so that unpruned
+ * searches would queue every short path around the hub.
+ */
+public class RouteFinderTest {
+  private static final int ORIGIN = 0;
+  private static final int DEST = 1;
+  private static final int HUBS = 40;
+
+  private int nextFid = 1;
+
+  private Query.Flight flight(int origin, int dest, int time) {
+    Query.Flight flight = new Query.Flight();
+    flight.fid = nextFid++;
+    flight.dayOfMonth = 1;
+    flight.origin = origin;
+    flight.dest = dest;
+    flight.time = time;
+    flight.capacity = 1;
+    flight.price = 100;
+    return flight;
+  }
+
+  /**
+   * A slow direct flight, fast flights from the origin to every hub city and between all of them,
+   * and a chain of {@code chain} fast flights from the hubs to the destination.
+   */
+  private FlightIndex hubDay(int chain) {
+    List<Query.Flight> flights = new ArrayList<>();
+    flights.add(flight(ORIGIN, DEST, 1000));
+    int firstHub = 2;
+    for (int hub = firstHub; hub < firstHub + HUBS; hub++) {
+      flights.add(flight(ORIGIN, hub, 1));
+      for (int other = firstHub; other < firstHub + HUBS; other++) {
+        if (other != hub) {
+          flights.add(flight(hub, other, 1));
+        }
+      }
+    }
+    int city = firstHub;
+    for (int i = 0; i < chain; i++) {
+      int next = i == chain - 1 ? DEST : firstHub + HUBS + i;
+      flights.add(flight(city, next, 1));
+      city = next;
+    }
+    return new FlightIndex(1, flights);
+  }
+
+  @Test(timeout = 5000)
+  public void prunesPathsThatCannotArriveWithinTheHopLimit() {
+    // the hubs are 9 flights from the destination, so only the direct flight fits in 8
+    List<Route> routes = new RouteFinder(hubDay(9)).find(ORIGIN, DEST, 8, 10);
+    assertEquals(1, routes.size());
+    assertEquals(1000, routes.get(0).getTotalTime());
+  }
+
+  @Test(timeout = 5000)
+  public void findsRoutesThroughTheHubs() {
+    List<Route> routes = new RouteFinder(hubDay(2)).find(ORIGIN, DEST, 3, 10);
+    // origin -> first hub -> chain -> destination, then the direct flight
+    assertEquals(2, routes.size());
+    assertEquals(3, routes.get(0).getTotalTime());
+    assertEquals(1000, routes.get(1).getTotalTime());
+  }
+
+  @Test(timeout = 5000)
+  public void stopsQueueingAfterTheLimit() {
+    // the last flight of the chain is full, which the time and hop bounds cannot tell, so every
+    // path through up to 7 hub cities looks promising
+    FlightIndex day = hubDay(2);
+    List<Route> routes = new RouteFinder(day, flight -> flight.dest != DEST || flight.time > 1)
+            .find(ORIGIN, DEST, 8, 10);
+    // the direct flight is found however soon the search gives up
+    assertEquals(1, routes.size());
+    assertEquals(1000, routes.get(0).getTotalTime());
+  }
+}
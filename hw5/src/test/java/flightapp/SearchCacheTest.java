@@ -0,0 +1,74 @@
+package flightapp;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that loads overlapping {@link SearchCache#invalidateAll()} do not outlive it.
+ */
+public class SearchCacheTest {
+  private static final String ORIGIN = "Search Cache Origin";
+  private static final String DEST = "Search Cache Dest";
+  private static final int DAY = 1;
+
+  @Test(timeout = 5000)
+  public void loadsStartedBeforeAnInvalidationAreNotCached() throws Exception {
+    SearchCache cache = new SearchCache(10);
+    SearchCache.Entry stale = entry(1);
+    SearchCache.Entry fresh = entry(2);
+    CountDownLatch staleStarted = new CountDownLatch(1);
+    CountDownLatch finishStale = new CountDownLatch(1);
+    ExecutorService threads = Executors.newFixedThreadPool(2);
+    try {
+      Future<SearchCache.Entry> before = threads.submit(() -> cache.getOrLoad(ORIGIN, DEST, true,
+              DAY, 1, () -> {
+                staleStarted.countDown();
+                await(finishStale);
+                return stale;
+              }));
+      staleStarted.await();
+      cache.invalidateAll();
+      // does not wait for the load that started before the invalidation
+      Future<SearchCache.Entry> after = threads.submit(() -> cache.getOrLoad(ORIGIN, DEST, true,
+              DAY, 1, () -> fresh));
+      assertSame(fresh, after.get());
+      finishStale.countDown();
+      assertSame(stale, before.get());
+
+      assertSame(fresh, cache.get(ORIGIN, DEST, true, DAY, 1));
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+
+  @Test
+  public void loadsAfterAnInvalidationAreCached() throws Exception {
+    SearchCache cache = new SearchCache(10);
+    cache.invalidateAll();
+    SearchCache.Entry loaded = entry(1);
+    assertSame(loaded, cache.getOrLoad(ORIGIN, DEST, true, DAY, 1, () -> loaded));
+    assertSame(loaded, cache.get(ORIGIN, DEST, true, DAY, 1));
+    assertEquals(1, cache.size());
+  }
+
+  private static SearchCache.Entry entry(int fid) {
+    Query.Flight flight = new Query.Flight();
+    flight.fid = fid;
+    flight.dayOfMonth = DAY;
+    flight.origin = NameDictionary.cities().id(ORIGIN);
+    flight.dest = NameDictionary.cities().id(DEST);
+    return new SearchCache.Entry(1, Collections.singletonList(flight), Collections.emptyList(), true);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package flightapp;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs two SeatAvailability instances, standing in for two app nodes, on one LocalInvalidationBus.
+ */
+public class SeatAvailabilityTest {
+  private static final int DAY = 1;
+  private static final int FID = 42;
+
+  private LocalInvalidationBus bus;
+  private SeatAvailability node1;
+  private SeatAvailability node2;
+  // loads per node
+  private AtomicInteger loads1;
+  private AtomicInteger loads2;
+
+  @Before
+  public void connect() throws Exception {
+    bus = new LocalInvalidationBus();
+    node1 = new SeatAvailability();
+    node2 = new SeatAvailability();
+    node1.connect(bus);
+    node2.connect(bus);
+    loads1 = new AtomicInteger();
+    loads2 = new AtomicInteger();
+    node1.load(DAY, counting(loads1, Collections.emptyList()));
+    node2.load(DAY, counting(loads2, Collections.emptyList()));
+  }
+
+  @After
+  public void close() {
+    bus.close();
+  }
+
+  private static SeatAvailability.Loader counting(AtomicInteger loads, List<Integer> soldOut) {
+    return day -> {
+      loads.incrementAndGet();
+      return soldOut;
+    };
+  }
+
+  @Test
+  public void bookingTheLastSeatReachesTheOtherNode() {
+    node1.update(FID, 0);
+    assertFalse(node1.isAvailable(FID));
+    assertFalse(node2.isAvailable(FID));
+  }
+
+  @Test
+  public void cancelingReachesTheOtherNode() {
+    node1.update(FID, 0);
+    node2.update(FID, 1);
+    assertTrue(node1.isAvailable(FID));
+    assertTrue(node2.isAvailable(FID));
+  }
+
+  @Test
+  public void resetMakesBothNodesReadTheDatabaseAgain() throws Exception {
+    node1.update(FID, 0);
+    bus.reset();
+    // forgotten until the day is read again
+    assertTrue(node1.isAvailable(FID));
+    assertTrue(node2.isAvailable(FID));
+
+    node1.load(DAY, counting(loads1, Collections.singletonList(FID)));
+    node2.load(DAY, counting(loads2, Collections.singletonList(FID)));
+    assertEquals(2, loads1.get());
+    assertEquals(2, loads2.get());
+    assertFalse(node1.isAvailable(FID));
+    assertFalse(node2.isAvailable(FID));
+
+    // loaded days are not read again
+    node1.load(DAY, counting(loads1, Collections.emptyList()));
+    assertEquals(2, loads1.get());
+  }
+
+  @Test
+  public void changesDuringALoadWinOverWhatItRead() throws Exception {
+    int otherDay = DAY + 1;
+    int otherFid = FID + 1;
+    // the read still sees the flight sold out, while the other node's cancel arrives
+    node1.load(otherDay, day -> {
+      node2.update(otherFid, 1);
+      return Collections.singletonList(otherFid);
+    });
+    assertTrue(node1.isAvailable(otherFid));
+
+    // and the day counts as loaded
+    AtomicInteger loads = new AtomicInteger();
+    node1.load(otherDay, counting(loads, Collections.emptyList()));
+    assertEquals(0, loads.get());
+  }
+
+  @Test
+  public void loadsOverlappingAResetAreDropped() throws Exception {
+    int otherDay = DAY + 1;
+    node1.load(otherDay, day -> {
+      bus.reset();
+      return Collections.singletonList(FID);
+    });
+    assertTrue(node1.isAvailable(FID));
+
+    AtomicInteger loads = new AtomicInteger();
+    node1.load(otherDay, counting(loads, Collections.singletonList(FID)));
+    assertEquals(1, loads.get());
+    assertFalse(node1.isAvailable(FID));
+  }
+}
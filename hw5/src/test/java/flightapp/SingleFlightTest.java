@@ -0,0 +1,43 @@
+package flightapp;
+
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that callers waiting on a shared load are released however the load ends.
+ */
+public class SingleFlightTest {
+  @Test(timeout = 5000)
+  public void waitersLoadThemselvesWhenTheLeaderThrowsAnError() throws Exception {
+    SingleFlight<String, String> flight = new SingleFlight<>();
+    CountDownLatch leaderStarted = new CountDownLatch(1);
+    CountDownLatch failLeader = new CountDownLatch(1);
+    ExecutorService threads = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> leader = threads.submit(() -> flight.execute("key", () -> {
+        leaderStarted.countDown();
+        try {
+          failLeader.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw new AssertionError("leader failed");
+      }));
+      leaderStarted.await();
+      Future<String> waiter = threads.submit(() -> flight.execute("key", () -> "loaded"));
+      // give the waiter time to join the leader's load
+      Thread.sleep(100);
+      failLeader.countDown();
+
+      ExecutionException failure = assertThrows(ExecutionException.class, leader::get);
+      assertTrue(failure.getCause() instanceof AssertionError);
+      assertEquals("loaded", waiter.get());
+      assertEquals(0, flight.inFlight());
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package flightapp;
+
+import java.lang.reflect.*;
+import java.sql.*;
+
+/**
+ * JDBC objects that answer every call with a default value, so that code over JDBC runs without a
+ * database: queries return no rows unless asked for some, updates change none, and getters return
+ * 0, false or null.
+ */
+public class StubJdbc {
+  /**
+   * A connection whose statements, result sets and metadata are stubs too.
+   */
+  public static Connection connection() {
+    return connection(0);
+  }
+
+  /**
+   * A stub connection whose result sets each have {@code rows} rows.
+   */
+  public static Connection connection(int rows) {
+    return stub(Connection.class, rows);
+  }
+
+  private static <T> T stub(Class<T> type, int rows) {
+    // rows left in this object, if it is a result set
+    int[] remaining = {rows};
+    return type.cast(Proxy.newProxyInstance(StubJdbc.class.getClassLoader(), new Class<?>[]{type},
+            (proxy, method, args) -> answer(proxy, method, args, rows, remaining)));
+  }
+
+  private static Object answer(Object proxy, Method method, Object[] args, int rows, int[] remaining) {
+    switch (method.getName()) {
+      case "next":
+        if (proxy instanceof ResultSet && remaining[0] > 0) {
+          remaining[0]--;
+          return true;
+        }
+        break;
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "stub " + proxy.getClass().getInterfaces()[0].getSimpleName();
+      default:
+        break;
+    }
+    Class<?> type = method.getReturnType();
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    if (type == short.class) {
+      return (short) 0;
+    }
+    if (type == byte.class) {
+      return (byte) 0;
+    }
+    if (type == float.class) {
+      return 0f;
+    }
+    if (type == double.class) {
+      return 0d;
+    }
+    if (type.isInterface() && type.getPackage().getName().equals("java.sql")) {
+      return stub(type, rows);
+    }
+    if (type == int[].class) {
+      return new int[0];
+    }
+    if (type == long[].class) {
+      return new long[0];
+    }
+    return null;
+  }
+}
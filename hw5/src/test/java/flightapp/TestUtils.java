@@ -59,6 +59,7 @@ public class TestUtils {
     scriptRunner.setErrorLogWriter(null);
     FileReader reader = new FileReader("createTables.sql");
     scriptRunner.runScript(reader);
+    new SchemaMigrator(conn).migrate();
   }
 
   public static void checkTable(Connection conn) throws SQLException, IOException {
@@ -0,0 +1,107 @@
+package flightapp;
+
+import org.junit.*;
+
+import java.io.StringReader;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Imports users in chunks of two, so that repeated and existing names fall on both sides of chunk
+ * boundaries. Needs the database in dbconn.properties.
+ */
+public class UserImporterTest {
+  private static Connection conn;
+  private Query query;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    conn = QueryAbstract.openConnectionFromDbConn();
+    TestUtils.dropTables(conn);
+    TestUtils.runCreateTables(conn);
+  }
+
+  @AfterClass
+  public static void teardown() throws SQLException {
+    conn.close();
+  }
+
+  @Before
+  public void clear() throws Exception {
+    query = new Query(QueryAbstract.openConnectionFromDbConn());
+    query.clearTables();
+  }
+
+  @After
+  public void close() throws SQLException {
+    query.clearTables();
+    query.closeConnection();
+  }
+
+  @Test
+  public void createsEachNewNameOnceAcrossChunks() throws Exception {
+    query.createCustomer("old", "old", 1);
+    String input = String.join("\n",
+            "alice pw1 100",
+            "bob pw2 50",
+            // chunk boundary; a repeat of a name imported in the previous chunk
+            "Alice pw3 10",
+            "carol pw4 0",
+            "dave pw5 -1",
+            "dave pw5 5",
+            // an existing user
+            "old pw 1",
+            "",
+            "a_name_longer_than_20 pw 1",
+            "erin pw6 6",
+            // repeats of names imported one and two chunks back
+            "erin pw7 7",
+            "bob pw7 7");
+
+    UserImporter.Result result = new UserImporter(conn, 2).importUsers(new StringReader(input));
+
+    assertEquals(5, result.created());
+    assertEquals(4, result.existing());
+    assertEquals(2, result.invalid());
+    assertEquals(Arrays.asList("alice", "bob", "carol", "dave", "erin", "old"), userNames());
+    // the first line of a name wins
+    assertEquals("Logged in as alice\n", login("alice", "pw1"));
+    assertEquals("Login failed\n", login("alice", "pw3"));
+    assertEquals("Logged in as erin\n", login("erin", "pw6"));
+    assertEquals("Logged in as old\n", login("old", "old"));
+  }
+
+  @Test
+  public void importsNothingTwice() throws Exception {
+    String input = "frank pw 1\ngrace pw 2\nheidi pw 3\n";
+    UserImporter importer = new UserImporter(conn, 2);
+    assertEquals(3, importer.importUsers(new StringReader(input)).created());
+
+    UserImporter.Result again = importer.importUsers(new StringReader(input));
+    assertEquals(0, again.created());
+    assertEquals(3, again.existing());
+    assertEquals(Arrays.asList("frank", "grace", "heidi"), userNames());
+  }
+
+  private String login(String userName, String password) throws Exception {
+    Query session = new Query(QueryAbstract.openConnectionFromDbConn());
+    try {
+      return session.login(userName, password);
+    } finally {
+      session.closeConnection();
+    }
+  }
+
+  private static List<String> userNames() throws SQLException {
+    List<String> names = new ArrayList<>();
+    try (PreparedStatement select = conn.prepareStatement("SELECT UserName FROM Users ORDER BY UserName");
+         ResultSet rs = select.executeQuery()) {
+      while (rs.next()) {
+        names.add(rs.getString("UserName"));
+      }
+    }
+    return names;
+  }
+}